@@ -24,6 +24,10 @@ import java.util.*;
 
 public class Parser {
     static boolean explain = false;
+    // 单独执行的查询默认加锁读；打开后改用乐观只读事务，读完再校验
+    static boolean optimisticReads = false;
+    // 打开后单独执行的查询读快照：不加锁，不阻塞写事务，但用不上区域映射
+    static boolean snapshotReads = false;
     // 当前的事务
     private Transaction curTrans = null;
     private boolean inUserTrans = false;
@@ -425,7 +429,13 @@ public class Parser {
             if (s instanceof ZTransactStmt) handleTransactStatement((ZTransactStmt) s);
             else {
                 if (!this.inUserTrans) {
-                    curTrans = new Transaction();
+                    // 单独执行的查询默认加共享锁读，区域映射可以跳页；
+                    // 打开-optimistic后用乐观只读事务，打开-snapshot后读快照
+                    if (s instanceof ZQuery && optimisticReads) {
+                        curTrans = Transaction.readOnly();
+                    } else {
+                        curTrans = new Transaction(s instanceof ZQuery && snapshotReads);
+                    }
                     curTrans.start();
                     System.out.println("Started a new transaction tid = " + curTrans.getId().getId());
                 }
@@ -436,7 +446,24 @@ public class Parser {
                     else {
                         System.out.println("Can't parse " + s + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null) query.execute();
+                    if (query != null && curTrans.isReadOnly()) {
+                        // 乐观读的结果先留着，校验通过了才打印
+                        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+                        query.execute(new PrintStream(result, true, "UTF-8"));
+                        if (curTrans.validate()) {
+                            System.out.print(result.toString("UTF-8"));
+                        } else {
+                            // 读的过程中有页被写了，结果可能不一致，丢掉它，加锁重新执行一次
+                            curTrans.abort();
+                            System.out.println("Transaction " + curTrans.getId().getId() + " read pages that were written concurrently, rerunning with locks");
+                            curTrans = new Transaction();
+                            curTrans.start();
+                            query = handleQueryStatement((ZQuery) s, curTrans.getId());
+                            query.execute();
+                        }
+                    } else if (query != null) {
+                        query.execute();
+                    }
 
                     if (!inUserTrans && curTrans != null) {
                         curTrans.commit();
@@ -473,7 +500,7 @@ public class Parser {
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -483,7 +510,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-optimistic | -snapshot] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -504,6 +531,12 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-optimistic")) {
+                    optimisticReads = true;
+                    System.out.println("Optimistic reads enabled.");
+                } else if (argv[i].equals("-snapshot")) {
+                    snapshotReads = true;
+                    System.out.println("Snapshot reads enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -517,6 +550,10 @@ public class Parser {
                 }
             }
         }
+        if (optimisticReads && snapshotReads) {
+            System.out.println("Choose either -optimistic or -snapshot\n" + usage);
+            System.exit(0);
+        }
         if (!interactive) {
             try {
                 // curtrans = new Transaction();
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.index.BTreeFileEncoder;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -10,14 +11,57 @@ import simpledb.transaction.TransactionId;
 import java.io.*;
 
 public class SimpleDb {
+    // convert默认最多用这么多内存
+    private static final long DEFAULT_LOAD_MEMORY = 256L << 20;
+
+    // 解析带k/m/g后缀的字节数
+    private static long parseSize(String s) {
+        String v = s.trim().toLowerCase();
+        long unit = 1;
+        if (v.endsWith("k"))
+            unit = 1L << 10;
+        else if (v.endsWith("m"))
+            unit = 1L << 20;
+        else if (v.endsWith("g"))
+            unit = 1L << 30;
+        if (unit > 1)
+            v = v.substring(0, v.length() - 1);
+        return Long.parseLong(v) * unit;
+    }
+
     public static void main(String[] args) throws DbException, TransactionAbortedException {
         // convert a file
         switch (args[0]) {
             case "convert":
                 try {
+                    // 以--开头的是选项：解析线程数、内存预算、页大小、按哪一列建B+树，以及是否压缩
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    long memoryBytes = DEFAULT_LOAD_MEMORY;
+                    int pageSize = BufferPool.getPageSize();
+                    int keyField = -1;
+                    boolean compressed = false;
+                    java.util.List<String> positional = new java.util.ArrayList<>();
+                    for (String arg : args) {
+                        if (arg.startsWith("--threads="))
+                            threads = Integer.parseInt(arg.substring("--threads=".length()));
+                        else if (arg.startsWith("--memory="))
+                            memoryBytes = parseSize(arg.substring("--memory=".length()));
+                        else if (arg.startsWith("--pagesize="))
+                            pageSize = Integer.parseInt(arg.substring("--pagesize=".length()));
+                        else if (arg.startsWith("--btree="))
+                            keyField = Integer.parseInt(arg.substring("--btree=".length()));
+                        else if (arg.equals("--compressed"))
+                            compressed = true;
+                        else if (arg.startsWith("--")) {
+                            System.err.println("Unknown option " + arg);
+                            System.exit(1);
+                        } else
+                            positional.add(arg);
+                    }
+                    args = positional.toArray(new String[0]);
                     if (args.length < 3 || args.length > 5) {
                         System.err.println("Unexpected number of arguments to convert ");
-                        return;
+                        System.exit(1);
                     }
                     File sourceTxtFile = new File(args[1]);
                     File targetDatFile = new File(args[1].replaceAll(".txt", ".dat"));
@@ -33,7 +77,7 @@ public class SimpleDb {
                         String[] typeStringAr = typeString.split(",");
                         if (typeStringAr.length != numOfAttributes) {
                             System.err.println("The number of types does not agree with the number of columns");
-                            return;
+                            System.exit(1);
                         }
                         int index = 0;
                         for (String s : typeStringAr) {
@@ -43,18 +87,45 @@ public class SimpleDb {
                                 ts[index++] = Type.STRING_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
-                                return;
+                                System.exit(1);
                             }
                         }
                         if (args.length == 5)
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile, BufferPool.getPageSize(), numOfAttributes,
-                        ts, fieldSeparator);
+                    if (keyField >= 0 && compressed) {
+                        System.err.println("B+ tree files cannot be compressed");
+                        System.exit(1);
+                    }
+                    // B+树的页都是数据库的页大小，只有堆文件可以有自己的页大小
+                    if (keyField >= 0 && pageSize != BufferPool.getPageSize()) {
+                        System.err.println("B+ tree files use the database page size of " + BufferPool.getPageSize()
+                            + " bytes; --pagesize is only for heap files");
+                        System.exit(1);
+                    }
+                    if (keyField >= 0)
+                        BTreeFileEncoder.bulkLoad(sourceTxtFile, targetDatFile, pageSize, ts,
+                            fieldSeparator, keyField, threads, memoryBytes);
+                    else if (compressed) {
+                        // 先写成普通的页，再压缩成带.pmap的表，对应catalog里的compressed选项
+                        File rawFile = File.createTempFile("convert", ".dat", targetDatFile.getAbsoluteFile().getParentFile());
+                        try {
+                            HeapFileEncoder.convert(sourceTxtFile, rawFile, pageSize, ts, fieldSeparator, threads,
+                                memoryBytes);
+                            CompressedPageStore.compress(rawFile, targetDatFile, new DeflatePageCodec(), pageSize);
+                        } finally {
+                            rawFile.delete();
+                        }
+                    } else
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile, pageSize, ts, fieldSeparator, threads,
+                            memoryBytes);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Invalid argument to convert: " + e.getMessage());
+                    System.exit(1);
                 }
                 break;
             case "print":
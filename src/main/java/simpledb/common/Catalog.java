@@ -1,7 +1,12 @@
 package simpledb.common;
 
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
+import simpledb.storage.DeflatePageCodec;
 import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageFormat;
+import simpledb.storage.IoMode;
+import simpledb.storage.PageCodec;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -59,6 +64,18 @@ public class Catalog {
         this.nameToIdMap.put(name, tableId);
     }
 
+    /**
+     * Add a new table to the catalog, reading its pages with the given I/O mode.
+     *
+     * @param ioMode how the file reads pages, e.g. {@link IoMode#MMAP} for read-mostly tables
+     * @throws UnsupportedOperationException if the file does not support the mode
+     * @see #addTable(DbFile, String, String)
+     */
+    public void addTable(DbFile file, String name, String pkeyField, IoMode ioMode) {
+        file.setIoMode(ioMode);
+        addTable(file, name, pkeyField);
+    }
+
     // 默认主键名为空
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
@@ -124,6 +141,18 @@ public class Catalog {
         return getTableInfo(tableid).getDbFile();
     }
 
+    /**
+     * Returns the size of the pages of the specified table in bytes.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     * @see DbFile#getPageSize()
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getTableInfo(tableid).getDbFile().getPageSize();
+    }
+
     public String getPrimaryKey(int tableid) throws NoSuchElementException {
         // some code goes here
         return getTableInfo(tableid).getPrimaryKeyName();
@@ -161,7 +190,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [mmap] [slotted|pax] [compressed] [pagesize=N]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -192,8 +221,29 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
-                addTable(tabHf, name, primaryKey);
+                // 括号后面可以指定读页的方式和页的格式
+                IoMode ioMode = IoMode.BUFFERED;
+                HeapPageFormat format = HeapPageFormat.FIXED;
+                PageCodec codec = null;
+                int pageSize = BufferPool.getPageSize();
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.equalsIgnoreCase("mmap"))
+                        ioMode = IoMode.MMAP;
+                    else if (option.equalsIgnoreCase("slotted"))
+                        format = HeapPageFormat.SLOTTED;
+                    else if (option.equalsIgnoreCase("pax"))
+                        format = HeapPageFormat.PAX;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        codec = new DeflatePageCodec();
+                    else if (option.toLowerCase().startsWith("pagesize="))
+                        pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t, format, codec, pageSize);
+                addTable(tabHf, name, primaryKey, ioMode);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -202,6 +252,9 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
         }
     }
 }
\ No newline at end of file
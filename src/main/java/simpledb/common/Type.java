@@ -4,6 +4,7 @@ import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.io.*;
 
@@ -28,6 +29,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,6 +54,16 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            final int strLen = Math.max(0, Math.min(buf.getInt(offset), STRING_LEN));
+            final byte[] bs = new byte[strLen];
+            final ByteBuffer src = buf.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -66,4 +82,15 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Decode a field of this type in place, without copying the surrounding
+     * bytes. Does not change the position of the buffer.
+     *
+     * @param buf    The buffer to read from
+     * @param offset The absolute offset of the field in the buffer
+     * @return a Field object of the same type as this object
+     * @see Field#serialize(ByteBuffer, int)
+     */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
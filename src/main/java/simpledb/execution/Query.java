@@ -98,26 +98,33 @@ public class Query implements Serializable {
     }
 
     public void execute() throws DbException, TransactionAbortedException {
+        execute(System.out);
+    }
+
+    /**
+     * Run the query and print its result to the given stream.
+     */
+    public void execute(PrintStream out) throws DbException, TransactionAbortedException {
         TupleDesc td = this.getOutputTupleDesc();
 
         StringBuilder names = new StringBuilder();
         for (int i = 0; i < td.numFields(); i++) {
             names.append(td.getFieldName(i)).append("\t");
         }
-        System.out.println(names);
+        out.println(names);
         for (int i = 0; i < names.length() + td.numFields() * 4; i++) {
-            System.out.print("-");
+            out.print("-");
         }
-        System.out.println();
+        out.println();
 
         this.start();
         int cnt = 0;
         while (this.hasNext()) {
             Tuple tup = this.next();
-            System.out.println(tup);
+            out.println(tup);
             cnt++;
         }
-        System.out.println("\n " + cnt + " rows.");
+        out.println("\n " + cnt + " rows.");
         this.close();
     }
 }
@@ -25,6 +25,8 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFileIterator dbFileIterator;
     private TupleDesc tupleDesc;
+    // 下推到扫描的条件，只用来跳过不可能满足条件的页
+    private final List<Predicate> pushedPredicates = new ArrayList<>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -80,7 +82,26 @@ public class SeqScan implements OpIterator {
         this.tableAlias = tableAlias;
         this.tupleDesc = null;
         final HeapFile dbFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-        this.dbFileIterator = new HeapFileIterator(dbFile.numPages(), tid, tableId);
+        final HeapFileIterator iterator = new HeapFileIterator(dbFile.numPages(), tid, tableId);
+        for (final Predicate p : this.pushedPredicates) {
+            iterator.addPagePredicate(p);
+        }
+        this.dbFileIterator = iterator;
+    }
+
+    /**
+     * Push a predicate of a Filter directly above this scan down into it. On
+     * a heap file the scan then skips the pages whose per-page minimum and
+     * maximum show that none of their tuples can satisfy the predicate; it
+     * still returns other tuples of the pages it reads, so the Filter stays.
+     *
+     * @param p a predicate on a field of the table
+     */
+    public void pushDownPredicate(Predicate p) {
+        this.pushedPredicates.add(p);
+        if (this.dbFileIterator instanceof HeapFileIterator) {
+            ((HeapFileIterator) this.dbFileIterator).addPagePredicate(p);
+        }
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -0,0 +1,91 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+
+/**
+ * Compacts the end of a HeapFile online.
+ * 在线整理堆文件的末尾：把最后一页的行挪到前面的页，挪空了就截掉
+ * <p>
+ * Each step moves the live tuples of the last page into free slots of
+ * earlier pages in one transaction, under the normal page locks and logged
+ * like any other: the page is emptied entirely or, if its tuples do not all
+ * fit or a lock cannot be had, not at all. Once that transaction has
+ * committed, a second one takes the write lock of the emptied page and cuts
+ * it off the file, since cutting cannot be rolled back. A crash or failure
+ * between the two leaves an empty last page, which the next vacuum cuts off.
+ * Steps repeat so that scans and cost estimates follow the live data instead
+ * of the peak size of the table.
+ * <p>
+ * A reader waits at most for one step. Compaction stops at the first page
+ * whose tuples do not all fit in earlier pages, and the file keeps at least
+ * one page. It also stops, leaving the emptied page in place, while a
+ * snapshot read begun before the tuples were moved is active.
+ *
+ * @see HeapFile#moveLastPage
+ * @see HeapFile#cutLastPage
+ */
+public class Vacuum {
+
+    private Vacuum() {
+    }
+
+    /**
+     * Cut at most maxPages pages off the end of the file.
+     *
+     * @return the number of pages cut off
+     */
+    public static int vacuum(HeapFile file, int maxPages) throws DbException, IOException {
+        int removed = 0;
+        try {
+            while (removed < maxPages && vacuumLastPage(file)) {
+                removed++;
+            }
+        } catch (TransactionAbortedException e) {
+            // 拿不到锁（死锁或者超时），这一步已经回滚了，下次再整理
+        }
+        return removed;
+    }
+
+    // 整理最后一页：挪空了就截掉；截掉了返回true
+    private static boolean vacuumLastPage(final HeapFile file) throws DbException, IOException, TransactionAbortedException {
+        final int last = file.numPages() - 1;
+        Transaction txn = new Transaction();
+        txn.start();
+        boolean committed = false;
+        try {
+            // 一页的行要么全部挪走，要么一行都不挪
+            if (!file.moveLastPage(txn.getId())) {
+                return false;
+            }
+            txn.commit();
+            committed = true;
+        } finally {
+            if (!committed) {
+                txn.abort();
+            }
+        }
+        // 挪完以后的提交时间戳，不早于挪动本身的提交
+        final long moved = Database.getBufferPool().getLastCommitTimestamp();
+
+        // 另一个事务拿着最后一页的写锁把它截掉；这期间别的事务也可能往里插了行
+        txn = new Transaction();
+        txn.start();
+        committed = false;
+        try {
+            final boolean cut = file.cutLastPage(txn.getId(), last, moved);
+            txn.commit();
+            committed = true;
+            return cut;
+        } finally {
+            if (!committed) {
+                txn.abort();
+            }
+        }
+    }
+}
@@ -9,9 +9,13 @@ import simpledb.execution.Predicate.Op;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
+import simpledb.util.PositionalFile;
+import simpledb.util.ReadAheadWindow;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BTreeFile is an implementation of a DbFile that stores a B+ tree.
@@ -32,6 +36,12 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableId;
     private final int keyField;
+    // 按位置读写页，并发的缺页可以同时读
+    private final PositionalFile pageFile;
+    // 用到的页数（高水位），文件末尾可能还有预分配的空页
+    private final AtomicInteger numPages;
+    // 文件不够用时一次扩展的页数
+    private volatile int extentPages;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +56,35 @@ public class BTreeFile implements DbFile {
         this.tableId = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.pageFile = new PositionalFile(f);
+        this.numPages = new AtomicInteger(countPages());
+        this.extentPages = BufferPool.DEFAULT_EXTENT_PAGES;
+    }
+
+    /**
+     * Count the pages of the file, leaving out the pages at its end that were
+     * preallocated but never used.
+     */
+    private int countPages() {
+        long used;
+        try {
+            used = pageFile.usedSize();
+        } catch (IOException e) {
+            e.printStackTrace();
+            used = f.length();
+        }
+        // 高水位是最后写过的字节之后，不一定在页边界上
+        return (int) Math.max(0, (used - BTreeRootPtrPage.getPageSize() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    /**
+     * Set how many pages the file grows by when it needs a new page.
+     */
+    public void setExtentPages(int extentPages) {
+        if (extentPages < 1) {
+            throw new IllegalArgumentException("An extent has at least one page");
+        }
+        this.extentPages = extentPages;
     }
 
     /**
@@ -87,11 +126,11 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
+                int retval = pageFile.read(ByteBuffer.wrap(pageBuf), 0);
+                if (retval <= 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -101,30 +140,42 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) != BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                int retval = pageFile.read(ByteBuffer.wrap(pageBuf), pageOffset(id.getPageNumber()));
+                if (retval <= 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BufferPool.getPageSize()) {
                     throw new IllegalArgumentException("Unable to read " + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
+                return createPage(id, pageBuf);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Page createPage(PageId pid, byte[] data) {
+        BTreePageId id = (BTreePageId) pid;
+        try {
+            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+                return new BTreeRootPtrPage(id, data);
+            } else if (id.pgcateg() == BTreePageId.INTERNAL) {
+                return new BTreeInternalPage(id, data, keyField);
+            } else if (id.pgcateg() == BTreePageId.LEAF) {
+                return new BTreeLeafPage(id, data, keyField);
+            } else { // id.pgcateg() == BTreePageId.HEADER
+                return new BTreeHeaderPage(id, data);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
+    }
+
+    // 第pageNo页在文件中的偏移，文件开头是根指针页，页号从1开始
+    private static long pageOffset(int pageNo) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
     }
 
     /**
@@ -137,14 +188,34 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            pageFile.write(ByteBuffer.wrap(data), 0);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            pageFile.write(ByteBuffer.wrap(data), pageOffset(id.getPageNumber()));
+            numPages.accumulateAndGet(id.getPageNumber(), Math::max);
+        }
+    }
+
+    /**
+     * Write several pages, merging pages that are adjacent in the file into
+     * one write.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        final long[] positions = new long[pages.size()];
+        final ByteBuffer[] buffers = new ByteBuffer[pages.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            BTreePageId id = (BTreePageId) pages.get(i).getId();
+            positions[i] = id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : pageOffset(id.getPageNumber());
+            buffers[i] = ByteBuffer.wrap(pages.get(i).getPageData());
+        }
+        pageFile.writeAll(positions, buffers);
+        pageFile.flush();
+        for (Page page : pages) {
+            BTreePageId id = (BTreePageId) page.getId();
+            if (id.pgcateg() != BTreePageId.ROOT_PTR) {
+                numPages.accumulateAndGet(id.getPageNumber(), Math::max);
+            }
         }
     }
 
@@ -152,8 +223,8 @@ public class BTreeFile implements DbFile {
      * Returns the number of pages in this BTreeFile.
      */
     public int numPages() {
-        // we only ever write full pages
-        return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+        // the file may extend past the last page in use with preallocated pages
+        return numPages.get();
     }
 
     /**
@@ -975,14 +1046,13 @@ public class BTreeFile implements DbFile {
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
         synchronized (this) {
-            if (f.length() == 0) {
+            if (numPages.get() == 0 && pageFile.size() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                pageFile.write(ByteBuffer.wrap(emptyRootPtrData), 0);
+                pageFile.write(ByteBuffer.wrap(emptyLeafData), emptyRootPtrData.length);
+                numPages.set(1);
             }
         }
 
@@ -1034,12 +1104,13 @@ public class BTreeFile implements DbFile {
         // or there are no free slots
         if (headerId == null) {
             synchronized (this) {
-                // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
-                byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
-                emptyPageNo = numPages();
+                // create the new page; the file grows by a whole extent of pages
+                // when it is too short, so most new pages need no file extension
+                emptyPageNo = numPages.get() + 1;
+                pageFile.ensureSize(pageOffset(emptyPageNo) + BufferPool.getPageSize(),
+                        (long) extentPages * BufferPool.getPageSize(),
+                        BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+                numPages.set(emptyPageNo);
             }
         }
 
@@ -1067,10 +1138,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableId, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        pageFile.write(ByteBuffer.wrap(BTreePage.createEmptyPageData()), pageOffset(emptyPageNo));
 
         // make sure the page is not in the buffer pool	or in the local cache		
         Database.getBufferPool().discardPage(newPageId);
@@ -1198,6 +1266,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    BufferAccessStrategy strategy = null;
+    ReadAheadWindow readAhead = null;
+    // number of leaves read so far, the position of curp for the read-ahead window
+    int leafNo = 0;
 
     final TransactionId tid;
     final BTreeFile f;
@@ -1221,6 +1293,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         BTreePageId root = rootPtr.getRootId();
         curp = f.findLeafPage(tid, root, null);
         it = curp.iterator();
+        // a full scan of a large tree walks the leaves through a private ring
+        strategy = Database.getBufferPool().getAccessStrategy(f.numPages());
+        readAhead = new ReadAheadWindow(Database.getBufferPool().getMaxReadAhead(strategy));
+        leafNo = 0;
+        readAhead.access(leafNo);
     }
 
     /**
@@ -1238,7 +1315,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
             if (nextp == null) {
                 curp = null;
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextp, Permissions.READ_ONLY);
+                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextp, Permissions.READ_ONLY, strategy);
+                readAheadLeaves();
                 it = curp.iterator();
                 if (!it.hasNext()) it = null;
             }
@@ -1248,6 +1326,20 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         return it.next();
     }
 
+    /**
+     * Prefetch the leaves to the right of curp in the background. Leaves are
+     * only reachable through the sibling pointers, so the chain is followed
+     * from curp up to the end of the read-ahead window; leaves that are
+     * already cached are skipped over.
+     */
+    private void readAheadLeaves() {
+        leafNo++;
+        if (readAhead.access(leafNo) > 0 && curp.getRightSiblingId() != null) {
+            Database.getBufferPool().prefetchChain(curp.getRightSiblingId(), readAhead.getAhead(leafNo),
+                    page -> page instanceof BTreeLeafPage ? ((BTreeLeafPage) page).getRightSiblingId() : null, strategy);
+        }
+    }
+
     /**
      * rewind this iterator back to the beginning of the tuples
      */
@@ -1263,6 +1355,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         super.close();
         it = null;
         curp = null;
+        strategy = null;
+        readAhead = null;
     }
 }
 
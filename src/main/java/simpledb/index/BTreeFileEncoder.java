@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * BTreeFileEncoder reads a comma delimited text file and converts it to
@@ -219,6 +220,55 @@ public class BTreeFileEncoder {
 
         // add the tuples to B+ tree file
         BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+        return buildTree(tuples.iterator(), bf, npagebytes, numFields, typeAr, keyField);
+    }
+
+    /**
+     * Encode a B+ tree file from a raw data file too large to sort in memory.
+     * The file is parsed by several threads into records, which are sorted
+     * on the key with an external merge sort within about memoryBytes, half
+     * of it for parsing and half for sorting; the tree is then built bottom
+     * up from the sorted records as in
+     * {@link #convert(File, File, File, int, int, Type[], char, int)}, without
+     * an intermediate heap file.
+     *
+     * @param inFile         - the file containing the raw data
+     * @param bFile          - the data file for the BTreeFile, replaced if it exists
+     * @param npagebytes     - number of bytes per page
+     * @param typeAr         - array containing the types of the tuples
+     * @param fieldSeparator - character separating fields in the raw data file
+     * @param keyField       - the field of the tuples the B+ tree will be keyed on
+     * @param threads        - number of threads parsing the raw data
+     * @param memoryBytes    - about how much memory the load may take
+     * @return the B+ tree file
+     * @see BulkLoader
+     * @see ExternalSorter
+     */
+    public static BTreeFile bulkLoad(File inFile, File bFile, int npagebytes, Type[] typeAr, char fieldSeparator,
+                                     int keyField, int threads, long memoryBytes) throws IOException, DbException,
+            TransactionAbortedException {
+        TupleDesc td = new TupleDesc(typeAr);
+        BulkLoader loader = new BulkLoader(typeAr, fieldSeparator, threads, memoryBytes / 2);
+        try (ExternalSorter sorter = new ExternalSorter(td, keyField, memoryBytes / 2)) {
+            loader.parse(inFile, sorter);
+            // 树是从空文件开始一页一页追加的
+            new FileOutputStream(bFile).close();
+            BTreeFile bf = new BTreeFile(bFile, keyField, td);
+            Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+            return buildTree(sorter.sorted(), bf, npagebytes, typeAr.length, typeAr, keyField);
+        } catch (UncheckedIOException e) {
+            // 归并时读临时文件失败
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Build a B+ tree bottom up from tuples sorted on the key field: leaf
+     * pages are filled in order, and internal pages are written as their
+     * entries fill up.
+     */
+    private static BTreeFile buildTree(Iterator<Tuple> tuples, BTreeFile bf, int npagebytes, int numFields,
+                                       Type[] typeAr, int keyField) throws IOException, DbException {
         Type keyType = typeAr[keyField];
         int tableid = bf.getId();
 
@@ -248,7 +298,8 @@ public class BTreeFileEncoder {
         List<Tuple> page1 = new ArrayList<>();
         List<Tuple> page2 = new ArrayList<>();
         BTreePageId leftSiblingId = null;
-        for (Tuple tup : tuples) {
+        while (tuples.hasNext()) {
+            Tuple tup = tuples.next();
             if (page1.size() < nrecords) {
                 page1.add(tup);
             } else if (page2.size() < nrecords) {
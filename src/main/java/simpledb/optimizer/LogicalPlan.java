@@ -301,6 +301,7 @@ public class LogicalPlan {
         Map<String, String> equivMap = new HashMap<>();
         Map<String, Double> filterSelectivities = new HashMap<>();
         Map<String, TableStats> statsMap = new HashMap<>();
+        Map<String, SeqScan> scans = new HashMap<>();
 
         // 生成 seqScan
         while (tableIt.hasNext()) {
@@ -313,6 +314,7 @@ public class LogicalPlan {
             }
 
             subplanMap.put(table.alias, ss);
+            scans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -347,6 +349,8 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
 
+            // 条件同时下推给 seqScan, 用来跳过不可能满足条件的页
+            scans.get(lf.tableAlias).pushDownPredicate(p);
             // 到这里, 将 table 的 seqScan 算子覆盖为 filter 算子
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
@@ -0,0 +1,50 @@
+package simpledb.storage;
+
+/**
+ * A ring of buffer pool frames private to one large sequential scan.
+ * 大表顺序扫描专用的环形缓冲区，扫描只在自己的几个页框里循环，不会冲掉热点页
+ * <p>
+ * Pages that a scan reads from disk through a strategy are remembered in the
+ * ring. Once the ring is full, each new page displaces the oldest one, and the
+ * BufferPool drops the displaced page if it is still clean and nobody else
+ * has used it since it was read; a page that was used stays in the pool,
+ * managed by its replacement policy like any other. The scan
+ * therefore recycles a handful of frames instead of flooding the shared pool.
+ * Pages that were already cached when the scan reached them are not tracked
+ * and stay in the pool.
+ *
+ * @see BufferPool#getAccessStrategy(int)
+ */
+public class BufferAccessStrategy {
+
+    /**
+     * Default number of frames in a ring.
+     */
+    public static final int DEFAULT_RING_SIZE = 16;
+
+    private final PageId[] ring;
+    // 下一个要复用的位置
+    private int current;
+
+    public BufferAccessStrategy(final int ringSize) {
+        this.ring = new PageId[Math.max(ringSize, 1)];
+        this.current = 0;
+    }
+
+    /**
+     * Remember a page read from disk for this scan.
+     *
+     * @param pid the page that was just loaded
+     * @return the page it displaces from the ring, or null if the ring was not full yet
+     */
+    PageId add(final PageId pid) {
+        final PageId displaced = this.ring[this.current];
+        this.ring[this.current] = pid;
+        this.current = (this.current + 1) % this.ring.length;
+        return displaced;
+    }
+
+    public int getRingSize() {
+        return this.ring.length;
+    }
+}
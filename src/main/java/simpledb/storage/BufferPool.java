@@ -1,18 +1,36 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.common.DeadlockException;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
+import simpledb.transaction.DeadlockVictimPolicy;
+import simpledb.transaction.Lock;
 import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
-import simpledb.util.LruCache;
+import simpledb.util.ClockReplacementPolicy;
+import simpledb.util.ReplacementPolicy;
 
 import java.io.*;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -35,6 +53,12 @@ public class BufferPool {
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
 
+    /**
+     * Smallest and largest page size a table can choose for itself.
+     */
+    public static final int MIN_TABLE_PAGE_SIZE = 4096;
+    public static final int MAX_TABLE_PAGE_SIZE = 1 << 16;
+
     /**
      * Default number of pages passed to the constructor. This is used by
      * other classes. BufferPool should use the numPages argument to the
@@ -43,30 +67,237 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private final LruCache<PageId, Page> lruCache;
+    /**
+     * Default number of pages a file grows by when it runs out of pages.
+     */
+    public static final int DEFAULT_EXTENT_PAGES = 16;
+
+    /**
+     * Upper bound of the read-ahead window of a scan that goes through the
+     * shared pool.
+     */
+    public static final int MAX_READ_AHEAD = 32;
+
+    // 后台预读线程，所有缓冲池共用；队列满了就放弃预读
+    private static final ThreadPoolExecutor PREFETCHER = new ThreadPoolExecutor(4, 4, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(256), r -> {
+                final Thread thread = new Thread(r, "simpledb-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }, (r, executor) -> ((Future<?>) r).cancel(false));
+
+    static {
+        PREFETCHER.allowCoreThreadTimeOut(true);
+    }
+
+    // 页框数，页框是创建时的数据库页大小；页比页框大的表，一页占多个页框
+    private final int numPages;
+    private final int frameSize;
+    // 缓存的页占用的页框数
+    private int usedFrames;
+
+    // 页表：页id -> 页，命中路径不加任何锁
+    private final Map<PageId, Page> pageTable;
+
+    // 置换策略，只记录访问信息，淘汰时挑选牺牲页
+    private final ReplacementPolicy<PageId> replacementPolicy;
+
+    // 只有干净的页可以被淘汰（NO STEAL）
+    private final Predicate<PageId> evictable;
 
     private final LockManager lockManager;
 
+    // 已提交页面的旧版本，供快照读使用
+    private final PageVersionStore versionStore;
+
+    // 页的版本号：写事务拿到写锁时变成奇数，事务结束时变回偶数
+    private final Map<PageId, AtomicLong> pageVersions;
+    // 写事务 -> 它让版本号变成奇数的页
+    private final Map<TransactionId, Set<PageId>> writeSets;
+    // 乐观只读事务 -> 不加锁读过的页和当时的版本号
+    private final Map<TransactionId, Map<PageId, Long>> readSets;
+
+    // 正在后台预读的页
+    private final Map<PageId, PrefetchTask> inFlight;
+    // 页被写回或者丢弃时加一；预读期间变了的话，读到的内容可能已经过时，不能放进缓存
+    private final AtomicLong discardEpoch;
+
+    // 提交时是否把页写回磁盘（FORCE）；不写的话由后台刷脏线程写
+    private volatile boolean forceAtCommit;
+    // 已提交但还没有写回磁盘的页
+    private final Set<PageId> unwritten;
+    // 内存中干净、磁盘上也是最新的页，淘汰时不需要写盘
+    private final Predicate<PageId> evictableWithoutWrite;
+    private PageCleaner pageCleaner;
+    // 堆外的第二级缓存，没有时为null
+    private volatile PageArena pageArena;
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
+     * Pages are evicted with the CLOCK policy.
+     * <p>
+     * The pool is numPages frames of the database page size; a page of a
+     * table with larger pages takes as many frames as it covers.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockReplacementPolicy<>(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * with the given replacement policy.
+     *
+     * @param numPages          maximum number of pages in this buffer pool.
+     * @param replacementPolicy the policy used to pick pages to evict
+     */
+    public BufferPool(int numPages, ReplacementPolicy<PageId> replacementPolicy) {
         // some code goes here
-        this.lruCache = new LruCache<>(numPages);
+        this.numPages = numPages;
+        this.frameSize = pageSize;
+        this.pageTable = new ConcurrentHashMap<>(numPages);
+        this.replacementPolicy = replacementPolicy;
+        this.evictable = pid -> {
+            final Page page = this.pageTable.get(pid);
+            return page != null && page.isDirty() == null;
+        };
         this.lockManager = new LockManager();
+        this.versionStore = new PageVersionStore();
+        this.pageVersions = new ConcurrentHashMap<>();
+        this.writeSets = new ConcurrentHashMap<>();
+        this.readSets = new ConcurrentHashMap<>();
+        this.inFlight = new ConcurrentHashMap<>();
+        this.discardEpoch = new AtomicLong();
+        this.forceAtCommit = true;
+        this.unwritten = ConcurrentHashMap.newKeySet();
+        this.evictableWithoutWrite = this.evictable.and(pid -> !this.unwritten.contains(pid));
+    }
+
+    /**
+     * Set the number of page locks a transaction may hold on one table before
+     * they are escalated to a single table lock.
+     */
+    public void setLockEscalationThreshold(int escalationThreshold) {
+        this.lockManager.setEscalationThreshold(escalationThreshold);
+    }
+
+    /**
+     * Set how the lock manager picks the transaction to abort on a deadlock.
+     */
+    public void setDeadlockVictimPolicy(DeadlockVictimPolicy victimPolicy) {
+        this.lockManager.setVictimPolicy(victimPolicy);
+    }
+
+    /**
+     * Choose whether committing a transaction writes its pages to disk
+     * (FORCE, the default). Without it, commit only forces the log records
+     * of the transaction's updates when logging is on; the pages stay in the
+     * pool and are written back later by the {@link PageCleaner}, or by
+     * eviction. Committed updates that were not written back yet survive a
+     * crash only if recovery redoes them from the log.
+     */
+    public void setForceAtCommit(boolean forceAtCommit) {
+        this.forceAtCommit = forceAtCommit;
+    }
+
+    public boolean isForceAtCommit() {
+        return this.forceAtCommit;
+    }
+
+    /**
+     * Start a background writer for committed pages of this pool, replacing
+     * any running one. Only useful when pages are not forced at commit.
+     *
+     * @see PageCleaner#PageCleaner(BufferPool, double, double, int)
+     */
+    public synchronized PageCleaner startPageCleaner(double lowWatermark, double highWatermark, int maxWritesPerSecond) {
+        stopPageCleaner();
+        this.pageCleaner = new PageCleaner(this, lowWatermark, highWatermark, maxWritesPerSecond);
+        this.pageCleaner.start();
+        return this.pageCleaner;
+    }
+
+    /**
+     * Stop the background writer, if one is running.
+     */
+    public void stopPageCleaner() {
+        final PageCleaner cleaner;
+        synchronized (this) {
+            cleaner = this.pageCleaner;
+            this.pageCleaner = null;
+        }
+        if (cleaner != null) {
+            cleaner.shutdown();
+        }
+    }
+
+    /**
+     * Put an off-heap arena below this pool: clean pages evicted from the
+     * pool are kept there, and misses look there before reading the disk.
+     *
+     * @param pageArena the arena, or null to stop using one
+     * @see PageArena
+     */
+    public synchronized void setPageArena(PageArena pageArena) {
+        this.pageArena = pageArena;
     }
 
+    public PageArena getPageArena() {
+        return this.pageArena;
+    }
+
+    /**
+     * @return the maximum number of pages this pool caches
+     */
+    public int getNumPages() {
+        return this.numPages;
+    }
+
+    /**
+     * @return the number of cached pages with committed changes not written to disk yet
+     */
+    public int getUnwrittenCount() {
+        return this.unwritten.size();
+    }
+
+    /**
+     * Returns the page size of the database: the size of the pages of tables
+     * that do not choose their own, and the size of one frame of the pool.
+     * 数据库的页大小，也是缓冲池一个页框的大小；表可以有自己的页大小
+     *
+     * @see DbFile#getPageSize()
+     */
     public static int getPageSize() {
         return pageSize;
     }
 
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    /**
+     * Set the page size of the database. Files already opened keep the page
+     * size they were opened with only if they chose their own.
+     */
     public static void setPageSize(int pageSize) {
         BufferPool.pageSize = pageSize;
     }
 
+    /**
+     * Check that a table can use pages of the given size: a power of two from
+     * {@link #MIN_TABLE_PAGE_SIZE} to {@link #MAX_TABLE_PAGE_SIZE} bytes.
+     *
+     * @throws IllegalArgumentException if it cannot
+     */
+    public static void checkTablePageSize(int pageSize) {
+        if (pageSize < MIN_TABLE_PAGE_SIZE || pageSize > MAX_TABLE_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two from "
+                    + MIN_TABLE_PAGE_SIZE + " to " + MAX_TABLE_PAGE_SIZE + ": " + pageSize);
+        }
+    }
+
+    // 一个页占几个页框：大页按页框大小折算
+    private int framesOf(final int pageSize) {
+        return Math.max(1, (pageSize + this.frameSize - 1) / this.frameSize);
+    }
+
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void resetPageSize() {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
@@ -89,38 +320,436 @@ public class BufferPool {
      */
     // TODO 这个方法是整个数据库最核心的方法
     public Page getPage(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a large sequential scan.
+     * Same as {@link #getPage(TransactionId, PageId, Permissions)}, but pages
+     * read from disk are recycled through the ring of the given strategy
+     * instead of taking frames from the shared pool.
+     *
+     * @param tid      the ID of the transaction requesting the page
+     * @param pid      the ID of the requested page
+     * @param perm     the requested permissions on the page
+     * @param strategy the ring of the calling scan, or null to use the shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferAccessStrategy strategy) throws TransactionAbortedException, DbException {
         // some code goes here
+        final Map<PageId, Long> readSet = this.readSets.get(tid);
+        if (readSet != null) {
+            if (perm != Permissions.READ_ONLY) {
+                throw new DbException("Transaction " + tid.getId() + " is read-only");
+            }
+            // 乐观只读事务不加锁，页正在被写时才退回加锁读
+            final Page page = getPageOptimistic(pid, readSet, strategy);
+            if (page != null) {
+                return page;
+            }
+        }
         // 只读的话是共享锁（读锁） 否则是独占锁（写锁）
-        final int lockType = perm == Permissions.READ_ONLY ? 0 : 1;
-        // 超时时间
-        final int timeout = new Random().nextInt(2000) + 1000;
-        // 尝试先获取锁
-        if (!this.lockManager.tryAcquireLock(pid, tid, lockType, timeout)) {
+        final int lockType = perm == Permissions.READ_ONLY ? Lock.SHARED : Lock.EXCLUSIVE;
+        // 先获取锁，拿不到时在锁的等待队列中睡眠，发生死锁时由死锁检测中止牺牲者
+        try {
+            this.lockManager.acquireLock(pid, tid, lockType);
+        } catch (DeadlockException e) {
             throw new TransactionAbortedException();
         }
-        // 用页id从缓存中拿到页
-        final Page page = this.lruCache.get(pid);
+        if (lockType == Lock.EXCLUSIVE) {
+            beginWrite(tid, pid);
+        }
+        // 用页id从缓存中拿到页，命中时只通知置换策略，不加锁
+        final Page page = this.pageTable.get(pid);
         if (page != null) {
+            // 扫描命中不提升页的热度
+            if (strategy == null) {
+                this.replacementPolicy.recordAccess(pid);
+            }
             return page;
         }
         // 如果页不在缓存中，从文件中拿
-        return loadPageAndCache(pid);
+        return loadPageAndCache(pid, strategy);
+    }
+
+    /**
+     * Make the transaction an optimistic reader: its read-only page requests
+     * take no locks, and {@link #validateReads} tells at the end whether any
+     * page it read has been written since. Pages that are being written when
+     * it asks for them are locked as usual instead. The transaction may not
+     * request pages for writing.
+     */
+    public void beginOptimisticRead(TransactionId tid) {
+        this.readSets.put(tid, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Return true if no page the optimistic reader read without a lock has
+     * been locked for writing since it read it. If this returns false, what
+     * the transaction read may be inconsistent and it should be aborted.
+     */
+    public boolean validateReads(TransactionId tid) {
+        final Map<PageId, Long> readSet = this.readSets.get(tid);
+        if (readSet == null) {
+            return true;
+        }
+        for (final Map.Entry<PageId, Long> entry : readSet.entrySet()) {
+            if (versionOf(entry.getKey()) != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 不加锁读页，记下读之前的版本号；版本号是奇数说明有事务持有写锁，返回null
+    private Page getPageOptimistic(final PageId pid, final Map<PageId, Long> readSet, final BufferAccessStrategy strategy) throws DbException {
+        final long version = versionOf(pid);
+        if ((version & 1L) == 1L) {
+            return null;
+        }
+        Page page = this.pageTable.get(pid);
+        if (page == null) {
+            page = loadPageAndCache(pid, strategy);
+        } else if (strategy == null) {
+            this.replacementPolicy.recordAccess(pid);
+        }
+        // 同一页读多次时以第一次的版本为准
+        readSet.putIfAbsent(pid, version);
+        return page;
+    }
+
+    private long versionOf(final PageId pid) {
+        final AtomicLong version = this.pageVersions.get(pid);
+        return version == null ? 0L : version.get();
+    }
+
+    // 拿到写锁后、修改页之前调用：版本号变成奇数
+    private void beginWrite(final TransactionId tid, final PageId pid) {
+        if (this.writeSets.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(pid)) {
+            this.pageVersions.computeIfAbsent(pid, p -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    // 释放写锁之前调用：版本号变回偶数，并且和读之前的不同
+    private void endWrite(final PageId pid) {
+        this.pageVersions.get(pid).incrementAndGet();
+    }
+
+    private void endWrites(final TransactionId tid) {
+        final Set<PageId> writes = this.writeSets.remove(tid);
+        if (writes != null) {
+            for (final PageId pid : writes) {
+                endWrite(pid);
+            }
+        }
+    }
+
+    /**
+     * Returns a ring buffer strategy for a sequential scan over a table with
+     * the given number of pages, or null if the whole table fits in the pool
+     * and can be scanned through it without flushing anything out.
+     *
+     * @param tablePages number of pages the scan is going to read
+     */
+    public BufferAccessStrategy getAccessStrategy(int tablePages) {
+        return getAccessStrategy(tablePages, pageSize);
+    }
+
+    /**
+     * Returns a ring buffer strategy for a sequential scan over a table with
+     * the given number of pages of the given size, or null if the whole table
+     * fits in the pool.
+     *
+     * @param tablePages number of pages the scan is going to read
+     * @param pageSize   the page size of the table
+     * @see #getAccessStrategy(int)
+     */
+    public BufferAccessStrategy getAccessStrategy(int tablePages, int pageSize) {
+        final int frames = framesOf(pageSize);
+        if ((long) tablePages * frames <= this.numPages) {
+            return null;
+        }
+        return new BufferAccessStrategy(Math.min(BufferAccessStrategy.DEFAULT_RING_SIZE, Math.max(this.numPages / 8 / frames, 1)));
+    }
+
+    /**
+     * Start a snapshot for the transaction. From now on it can read pages
+     * through {@link #getPageSnapshot} without taking any lock; it sees the
+     * database as of the last commit before this call, plus its own writes.
+     * The snapshot ends when the transaction completes.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        this.versionStore.beginSnapshot(tid);
+    }
+
+    /**
+     * Return the timestamp of the last commit. A snapshot begun afterwards
+     * sees everything committed up to now.
+     */
+    public long getLastCommitTimestamp() {
+        return this.versionStore.getLastCommitted();
+    }
+
+    /**
+     * Return true if a snapshot begun before the commit at the given
+     * timestamp is still active, so old versions of the pages that commit
+     * changed may still be read.
+     */
+    public boolean hasSnapshotBefore(long commitTimestamp) {
+        return this.versionStore.hasSnapshotBefore(commitTimestamp);
+    }
+
+    /**
+     * Return true if the transaction reads from a snapshot.
+     */
+    public boolean isSnapshotRead(TransactionId tid) {
+        return this.versionStore.getSnapshot(tid) != null;
+    }
+
+    /**
+     * Retrieve the version of the specified page visible to the snapshot of
+     * the transaction. Takes no lock, so it never blocks a writer and is never
+     * blocked by one. Pages the transaction has dirtied itself are returned as
+     * is; any other returned page is a committed image and must not be modified.
+     *
+     * @param tid the ID of a transaction that has begun a snapshot
+     * @param pid the ID of the requested page
+     * @throws DbException if the transaction has no snapshot
+     */
+    public Page getPageSnapshot(TransactionId tid, PageId pid) throws DbException {
+        final Long snapshot = this.versionStore.getSnapshot(tid);
+        if (snapshot == null) {
+            throw new DbException("Transaction " + tid.getId() + " has no snapshot");
+        }
+        while (true) {
+            final long seq = this.versionStore.readBegin();
+            Page page = this.pageTable.get(pid);
+            if (page == null) {
+                page = loadPageAndCache(pid);
+            }
+            if (page.isDirty() == tid) {
+                return page;
+            }
+            // 先找被覆盖掉的旧版本，找不到时当前已提交的版本（前像）就是可见的
+            Page visible = this.versionStore.findVersion(pid, snapshot);
+            if (visible == null) {
+                visible = page.getBeforeImage();
+            }
+            // 期间有事务提交的话重新找
+            if (this.versionStore.validate(seq)) {
+                return visible;
+            }
+        }
     }
 
-    // 从文件中拿页，并加入到缓存中
     private Page loadPageAndCache(final PageId pid) throws DbException {
-        final DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        final Page dbPage = dbFile.readPage(pid);
-        if (dbPage != null) {
-            this.lruCache.put(pid, dbPage);
-            // 如果缓存已经满了，淘汰掉不常用的页面
-            if (this.lruCache.getSize() == this.lruCache.getMaxSize()) {
-                evictPage();
+        return loadPageAndCache(pid, null);
+    }
+
+    // 从文件中拿页，并加入到缓存中
+    private Page loadPageAndCache(final PageId pid, final BufferAccessStrategy strategy) throws DbException {
+        // 这一页正在被预读的话，等它读完，不再重复读盘
+        final PrefetchTask pending = this.inFlight.get(pid);
+        if (pending != null) {
+            pending.await();
+            final Page cached = this.pageTable.get(pid);
+            if (cached != null) {
+                return cached;
             }
         }
+        final Page dbPage = readPage(pid);
+        if (dbPage == null) {
+            return null;
+        }
+        synchronized (this) {
+            // 读盘期间可能已经有别的线程把这一页放进了缓存
+            final Page cached = this.pageTable.get(pid);
+            if (cached != null) {
+                this.replacementPolicy.recordAccess(pid);
+                return cached;
+            }
+            admitPage(dbPage, strategy);
+        }
         return dbPage;
     }
 
+    // 先从堆外页框里拿，没有再读盘
+    private Page readPage(final PageId pid) {
+        final DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        final PageArena arena = this.pageArena;
+        if (arena != null) {
+            final byte[] data = arena.take(pid);
+            if (data != null) {
+                final Page page = dbFile.createPage(pid, data);
+                if (page != null) {
+                    return page;
+                }
+            }
+        }
+        return dbFile.readPage(pid);
+    }
+
+    // 为新读进来的页腾出页框并加入缓存
+    private synchronized void admitPage(final Page page, final BufferAccessStrategy strategy) throws DbException {
+        // 大表扫描复用自己环里最老的页框；别人用过的页离开环，留在共享的缓存里
+        if (strategy != null) {
+            final PageId displaced = strategy.add(page.getId());
+            if (displaced != null && this.evictableWithoutWrite.test(displaced)
+                    && !this.replacementPolicy.isReferenced(displaced)) {
+                spillPage(displaced);
+            }
+        }
+        // 如果缓存已经满了，淘汰掉不常用的页面；比整个缓存还大的页也要能放进来
+        final int frames = framesOf(page.getSize());
+        while (!this.pageTable.isEmpty() && this.usedFrames + frames > this.numPages) {
+            evictPage();
+        }
+        cachePage(page);
+    }
+
+    /**
+     * Returns how many pages a sequential reader should at most read ahead of
+     * itself. A scan with a ring must not prefetch so far that it pushes the
+     * pages it has yet to read out of its own ring.
+     *
+     * @param strategy the ring of the scan, or null if it reads through the shared pool
+     */
+    public int getMaxReadAhead(BufferAccessStrategy strategy) {
+        if (strategy != null) {
+            return Math.max(1, strategy.getRingSize() / 2);
+        }
+        return Math.max(1, Math.min(MAX_READ_AHEAD, this.numPages / 4));
+    }
+
+    /**
+     * Start reading the specified page into the pool in the background, if it
+     * is neither cached nor already being read. Takes no lock: a transaction
+     * still locks the page through {@link #getPage} before it uses it, and a
+     * getPage that misses while the page is being prefetched waits for the
+     * read instead of issuing its own. Prefetching is only a hint; pages past
+     * the end of the file, or that find the pool full of dirty pages, are
+     * silently dropped.
+     *
+     * @param pid      the page to read
+     * @param strategy the ring of the scan the page is read for, or null to use the shared pool
+     */
+    public void prefetch(PageId pid, BufferAccessStrategy strategy) {
+        if (this.pageTable.containsKey(pid) || this.inFlight.containsKey(pid)) {
+            return;
+        }
+        final PrefetchTask task = new PrefetchTask(pid, () -> {
+            loadPrefetched(pid, strategy);
+            return null;
+        });
+        if (this.inFlight.putIfAbsent(pid, task) == null) {
+            PREFETCHER.execute(task);
+        }
+    }
+
+    /**
+     * Start reading a chain of pages into the pool in the background, where
+     * each page names the next one (such as B+ tree leaves linked by their
+     * right sibling pointers). Pages already cached are followed without
+     * being read again. The chain stops after count pages, at a page next
+     * returns null for, or where a page could not be prefetched.
+     *
+     * @param first    the first page of the chain
+     * @param count    the number of pages to follow
+     * @param next     returns the id of the page after the given one, or null at the end
+     * @param strategy the ring of the scan the pages are read for, or null to use the shared pool
+     */
+    public void prefetchChain(PageId first, int count, Function<Page, PageId> next, BufferAccessStrategy strategy) {
+        PREFETCHER.execute(new FutureTask<Void>(() -> {
+            PageId pid = first;
+            for (int i = 0; i < count && pid != null; i++) {
+                Page page = this.pageTable.get(pid);
+                if (page == null) {
+                    final PrefetchTask task = new PrefetchTask(pid, () -> null);
+                    // 别人正在读这一页，链条就交给前台，不在后台线程里互相等待
+                    if (this.inFlight.putIfAbsent(pid, task) != null) {
+                        return null;
+                    }
+                    try {
+                        loadPrefetched(pid, strategy);
+                    } finally {
+                        task.run();
+                    }
+                    page = this.pageTable.get(pid);
+                    if (page == null) {
+                        return null;
+                    }
+                }
+                pid = next.apply(page);
+            }
+            return null;
+        }));
+    }
+
+    // 后台读一页；读盘期间有页被写回或丢弃过，就放弃这次预读
+    private void loadPrefetched(final PageId pid, final BufferAccessStrategy strategy) {
+        if (this.pageTable.containsKey(pid)) {
+            return;
+        }
+        final long epoch = this.discardEpoch.get();
+        final Page page;
+        try {
+            page = readPage(pid);
+        } catch (RuntimeException e) {
+            // 超出了文件末尾，或者表已经不在目录中了
+            return;
+        }
+        if (page == null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.discardEpoch.get() != epoch || this.pageTable.containsKey(pid)) {
+                return;
+            }
+            try {
+                admitPage(page, strategy);
+            } catch (DbException e) {
+                // 缓存里全是脏页，放弃预读
+            }
+        }
+    }
+
+    // 一页的后台读取，结束（或被取消）时从inFlight中移除
+    private final class PrefetchTask extends FutureTask<Void> {
+
+        private final PageId pid;
+
+        PrefetchTask(final PageId pid, final Callable<Void> load) {
+            super(load);
+            this.pid = pid;
+        }
+
+        @Override
+        protected void done() {
+            BufferPool.this.inFlight.remove(this.pid, this);
+        }
+
+        // 等待读取结束，预读失败了由调用者自己去读
+        void await() {
+            try {
+                get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // ignore
+            }
+        }
+    }
+
+    // 将页加入页表（或者替换已有的版本）
+    private synchronized void cachePage(final Page page) {
+        final PageId pid = page.getId();
+        if (this.pageTable.put(pid, page) == null) {
+            this.usedFrames += framesOf(page.getSize());
+            this.replacementPolicy.recordInsert(pid);
+        } else {
+            this.replacementPolicy.recordAccess(pid);
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -133,6 +762,10 @@ public class BufferPool {
     public void unsafeReleasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        final Set<PageId> writes = this.writeSets.get(tid);
+        if (writes != null && writes.remove(pid)) {
+            endWrite(pid);
+        }
         this.lockManager.releaseLock(pid, tid);
     }
 
@@ -144,7 +777,10 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        endWrites(tid);
         this.lockManager.releaseLockByTxn(tid);
+        this.versionStore.endSnapshot(tid);
+        this.readSets.remove(tid);
     }
 
     /**
@@ -167,14 +803,101 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1|lab2
         try {
-            if (commit) {
+            if (commit && this.forceAtCommit) {
+                publishCommit(getDirtyPages(tid));
                 flushPages(tid);
+            } else if (commit) {
+                commitWithoutForce(tid);
             } else {
                 reLoadPages(tid);
             }
-            this.lockManager.releaseLockByTxn(tid);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            // 页已经是最终内容了，先让版本号变回偶数再放锁；
+            // 写回或者重新加载失败时也要放锁，否则等这些锁的事务会一直睡下去
+            endWrites(tid);
+            this.lockManager.releaseLockByTxn(tid);
+            this.versionStore.endSnapshot(tid);
+            this.readSets.remove(tid);
+        }
+    }
+
+    // 提交：给事务的修改分配提交时间戳，活跃快照还可能看到的旧版本留在版本链中，
+    // 然后把当前内容设为新的前像（已提交版本）
+    private void publishCommit(final List<Page> dirtyPages) {
+        synchronized (this.versionStore) {
+            final long ts = this.versionStore.beginCommit();
+            try {
+                final boolean retain = this.versionStore.hasSnapshots();
+                for (final Page page : dirtyPages) {
+                    if (retain) {
+                        this.versionStore.retire(page.getId(), page.getBeforeImage(), ts);
+                    }
+                    page.setBeforeImage();
+                }
+            } finally {
+                this.versionStore.endCommit(ts);
+            }
+        }
+    }
+
+    // NO FORCE提交：先把更新记录写进日志并刷盘（WAL），再把页标成已提交未写回，交给后台线程写
+    private void commitWithoutForce(final TransactionId tid) throws IOException {
+        final List<Page> dirtyPages = getDirtyPages(tid);
+        final LogFile logFile = Database.getLogFile();
+        if (logFile != null && !dirtyPages.isEmpty()) {
+            for (final Page page : dirtyPages) {
+                logFile.logWrite(tid, page.getBeforeImage(), page);
+            }
+            logFile.force();
+        }
+        publishCommit(dirtyPages);
+        synchronized (this) {
+            for (final Page page : dirtyPages) {
+                // 先登记再标成干净，淘汰时不会不写盘就丢掉
+                this.unwritten.add(page.getId());
+                page.markDirty(false, null);
+            }
+        }
+        final PageCleaner cleaner = this.pageCleaner;
+        if (cleaner != null && this.unwritten.size() > cleaner.getHighWatermarkPages()) {
+            cleaner.wakeUp();
+        }
+    }
+
+    /**
+     * Write back up to max pages with committed changes that are not on disk
+     * yet, those nearest to eviction first. Called by the {@link PageCleaner}.
+     *
+     * @return the number of pages written
+     */
+    int cleanPages(int max) {
+        int written = 0;
+        for (final PageId pid : this.replacementPolicy.peekVictims(max, this.unwritten::contains)) {
+            if (writeBack(pid)) {
+                written++;
+            }
+        }
+        return written;
+    }
+
+    // 写回已提交的内容，也就是页的前像：提交时前像已经更新成了新内容，
+    // 页正在被别的事务修改时前像也不受影响，不会把未提交的修改写到磁盘上
+    private synchronized boolean writeBack(final PageId pid) {
+        final Page page = this.pageTable.get(pid);
+        if (page == null || !this.unwritten.remove(pid)) {
+            return false;
+        }
+        try {
+            final DbFile tableFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            tableFile.writePage(page.getBeforeImage());
+            this.discardEpoch.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            this.unwritten.add(pid);
+            e.printStackTrace();
+            return false;
         }
     }
 
@@ -202,8 +925,8 @@ public class BufferPool {
         for (final Page page : dirtyPages) {
             // TODO 似乎是多余的，因为在调用insert的时候就已经被标记为脏页了
             page.markDirty(true, tid);
-            // 加入到缓存中（或者提到链头）
-            this.lruCache.put(page.getId(), page);
+            // 加入到缓存中（或者更新访问信息）
+            cachePage(page);
         }
     }
 
@@ -228,7 +951,7 @@ public class BufferPool {
         final List<Page> dirtyPages = table.deleteTuple(tid, t);
         for (final Page page : dirtyPages) {
             page.markDirty(true, tid);
-            this.lruCache.put(page.getId(), page);
+            cachePage(page);
         }
     }
 
@@ -240,10 +963,7 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        final Iterator<Page> pageIterator = this.lruCache.valueIterator();
-        while (pageIterator.hasNext()) {
-            flushPage(pageIterator.next());
-        }
+        flushPages(new ArrayList<>(this.pageTable.values()));
     }
 
     /**
@@ -258,32 +978,58 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        this.lruCache.remove(pid);
+        this.discardEpoch.incrementAndGet();
+        this.unwritten.remove(pid);
+        removePage(pid);
+        final PageArena arena = this.pageArena;
+        if (arena != null) {
+            arena.remove(pid);
+        }
+    }
+
+    // 从页表中移除；淘汰干净的页不会让磁盘上的内容变化，不需要让预读作废
+    private synchronized void removePage(final PageId pid) {
+        final Page page = this.pageTable.remove(pid);
+        if (page != null) {
+            this.usedFrames -= framesOf(page.getSize());
+            this.replacementPolicy.recordRemove(pid);
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes pages to disk. The pages are grouped by file, and each file
+     * writes its share in one call, so it can sort them and merge adjacent
+     * pages into a few large writes.
      *
-     * @param page the page that needed to be flush
+     * @param pages the pages that needed to be flush
      */
-    private synchronized void flushPage(Page page) {
+    private synchronized void flushPages(List<Page> pages) {
         // some code goes here
         // not necessary for lab1
-        try {
-            // for lab6, write update record first
-            //            final LogFile logFile = Database.getLogFile();
-            //            if (page.isDirty() != null) {
-            //                logFile.logWrite(page.isDirty(), page.getBeforeImage(), page);
-            //                logFile.force();
-            //            }
-
-            // Write page
-            final DbFile tableFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
-            tableFile.writePage(page);
-            page.markDirty(false, null);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("Error happen when flush page to disk:" + e.getMessage());
+        // for lab6, write update record first
+        //            final LogFile logFile = Database.getLogFile();
+        //            if (page.isDirty() != null) {
+        //                logFile.logWrite(page.isDirty(), page.getBeforeImage(), page);
+        //                logFile.force();
+        //            }
+        final Map<Integer, List<Page>> pagesByTable = new HashMap<>();
+        for (final Page page : pages) {
+            pagesByTable.computeIfAbsent(page.getId().getTableId(), t -> new ArrayList<>()).add(page);
+        }
+        for (final Map.Entry<Integer, List<Page>> entry : pagesByTable.entrySet()) {
+            try {
+                // Write pages
+                final DbFile tableFile = Database.getCatalog().getDatabaseFile(entry.getKey());
+                tableFile.writePages(entry.getValue());
+                this.discardEpoch.incrementAndGet();
+                for (final Page page : entry.getValue()) {
+                    page.markDirty(false, null);
+                    this.unwritten.remove(page.getId());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("Error happen when flush page to disk:" + e.getMessage());
+            }
         }
     }
 
@@ -292,13 +1038,7 @@ public class BufferPool {
      */
     public synchronized void flushPages(TransactionId tid) {
         // some code goes here
-        final Iterator<Page> pageIterator = this.lruCache.valueIterator();
-        while (pageIterator.hasNext()) {
-            final Page page = pageIterator.next();
-            if (page.isDirty() == tid) {
-                flushPage(page);
-            }
-        }
+        flushPages(getDirtyPages(tid));
     }
 
     /**
@@ -307,35 +1047,70 @@ public class BufferPool {
     public synchronized void reLoadPages(TransactionId tid) throws IOException, DbException {
         // some code goes here
         // not necessary for lab1|lab2
-        final Iterator<Page> pageIterator = this.lruCache.valueIterator();
-        while (pageIterator.hasNext()) {
-            final Page page = pageIterator.next();
-            if (page.isDirty() == tid) {
-                discardPage(page.getId());
-                loadPageAndCache(page.getId());
+        for (final Page page : getDirtyPages(tid)) {
+            // 已提交的修改还没写回磁盘的话，磁盘上的是旧内容，用前像恢复
+            if (this.unwritten.contains(page.getId())) {
+                cachePage(page.getBeforeImage());
+                continue;
+            }
+            discardPage(page.getId());
+            loadPageAndCache(page.getId());
+        }
+    }
+
+    // 找出事务弄脏的页
+    private List<Page> getDirtyPages(TransactionId tid) {
+        final List<Page> dirtyPages = new ArrayList<>();
+        // 事务弄脏的页一定被它加了写锁，所以只需要看它锁住的页
+        for (final PageId pid : this.lockManager.getLockedPages(tid)) {
+            final Page page = this.pageTable.get(pid);
+            if (page != null && page.isDirty() == tid) {
+                dirtyPages.add(page);
+            }
+        }
+        // 持有表写锁时，表中的页不再单独加锁，只能扫描缓存
+        final Set<Integer> exclusiveTables = this.lockManager.getExclusiveTables(tid);
+        if (!exclusiveTables.isEmpty()) {
+            for (final Page page : this.pageTable.values()) {
+                if (page.isDirty() == tid && exclusiveTables.contains(page.getId().getTableId()) && !dirtyPages.contains(page)) {
+                    dirtyPages.add(page);
+                }
             }
         }
+        return dirtyPages;
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
-     * lru算法淘汰页面
+     * 由置换策略挑选牺牲页
      */
     private synchronized void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        // 倒着遍历，这样拿到的是最不常用的页
-        final Iterator<Page> pageIterator = this.lruCache.reverseIterator();
-        while (pageIterator.hasNext()) {
-            final Page page = pageIterator.next();
-            // 如果这个页不是脏页，那么可以放心的从缓存中取出
-            if (page.isDirty() == null) {
-                discardPage(page.getId());
-                return;
-            }
+        // 只有不是脏页的页才可以放心的从缓存中取出
+        // 优先淘汰磁盘上已经是最新的页，找不到时才自己写回一个已提交的页
+        PageId victim = this.unwritten.isEmpty() ? null : this.replacementPolicy.selectVictim(this.evictableWithoutWrite);
+        if (victim == null) {
+            victim = this.replacementPolicy.selectVictim(this.evictable);
+        }
+        if (victim == null) {
+            throw new DbException("All pages are dirty in buffer pool");
+        }
+        if (this.unwritten.contains(victim) && !writeBack(victim)) {
+            throw new DbException("Failed to write back page " + victim);
+        }
+        spillPage(victim);
+    }
+
+    // 从缓存中移除一个干净的页；它和磁盘上一样，放到堆外页框里
+    private void spillPage(final PageId pid) {
+        final PageArena arena = this.pageArena;
+        final Page page = this.pageTable.get(pid);
+        if (arena != null && page != null) {
+            arena.put(pid, page.getPageData());
         }
-        throw new DbException("All pages are dirty in buffer pool");
+        removePage(pid);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,382 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a delimited text file, in the format read by
+ * {@link HeapFileEncoder#convert(File, File, int, int, Type[], char)}, with
+ * several threads and bounded memory.
+ * 并行导入文本文件：输入按块切开，多个线程同时解析，内存占用有上限
+ * <p>
+ * The input is cut into chunks at line boundaries. Worker threads parse the
+ * chunks and serialize each line into a record, the fixed-size form of a
+ * tuple in a heap page; the records of each chunk are handed on in input
+ * order. Only a few chunks per thread are in flight at a time, so the memory
+ * used stays about the given budget whatever the size of the input. A line
+ * with a malformed or missing field is reported and skipped.
+ *
+ * @see HeapFileEncoder#convert(File, File, int, Type[], char, int, long)
+ */
+public class BulkLoader {
+
+    /**
+     * Receives the records parsed from the input, one chunk at a time and in
+     * input order.
+     */
+    public interface RecordSink {
+        /**
+         * @param records count records of {@link #getRecordSize()} bytes each,
+         *                owned by the sink from now on
+         */
+        void accept(byte[] records, int count) throws IOException;
+    }
+
+    // 一块输入的字节数的上下限
+    private static final int MIN_CHUNK_BYTES = 1 << 16;
+    private static final int MAX_CHUNK_BYTES = 1 << 26;
+    // 攒够这么多字节的页再写一次
+    private static final int WRITE_BYTES = 1 << 20;
+
+    private final Type[] typeAr;
+    private final char fieldSeparator;
+    private final int threads;
+    private final long memoryBytes;
+    private final int recordSize;
+
+    /**
+     * @param typeAr         the types of the fields of each line
+     * @param fieldSeparator the character between fields of a line
+     * @param threads        the number of threads parsing the input
+     * @param memoryBytes    about how much memory the chunks in flight may take
+     */
+    public BulkLoader(Type[] typeAr, char fieldSeparator, int threads, long memoryBytes) {
+        if (threads < 1 || memoryBytes < 1) {
+            throw new IllegalArgumentException("A loader needs at least one thread and some memory");
+        }
+        this.typeAr = typeAr.clone();
+        this.fieldSeparator = fieldSeparator;
+        this.threads = threads;
+        this.memoryBytes = memoryBytes;
+        int size = 0;
+        for (final Type type : typeAr) {
+            size += type.getLen();
+        }
+        this.recordSize = size;
+    }
+
+    /**
+     * @return the number of bytes of each record
+     */
+    public int getRecordSize() {
+        return this.recordSize;
+    }
+
+    // 一块输入的字节数：每个线程两块在路上，文本加上解析出来的记录大约占满内存预算；
+    // 记录最多比文本大这么多倍（每个字段只有一个字符）
+    private int chunkBytes() {
+        final long expansion = 1 + (this.recordSize + 2L * this.typeAr.length - 1) / (2L * this.typeAr.length);
+        final long bytes = this.memoryBytes / (2L * this.threads) / expansion;
+        return (int) Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, bytes));
+    }
+
+    /**
+     * Parse the input file and hand its records to the sink.
+     *
+     * @throws IOException if the input file cannot be read or the sink fails
+     */
+    public void parse(File inFile, RecordSink sink) throws IOException {
+        final ExecutorService workers = Executors.newFixedThreadPool(this.threads, r -> {
+            final Thread thread = new Thread(r, "bulk-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            final long size = in.size();
+            final int chunkBytes = chunkBytes();
+            // 按输入的顺序交给sink，同时在路上的块数有上限
+            final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            for (long start = 0; start < size; start += chunkBytes) {
+                final long from = start;
+                final long to = Math.min(size, start + chunkBytes);
+                pending.add(workers.submit(() -> parseChunk(in, from, to, size)));
+                if (pending.size() >= 2 * this.threads) {
+                    deliver(pending.poll(), sink);
+                }
+            }
+            while (!pending.isEmpty()) {
+                deliver(pending.poll(), sink);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static void deliver(final Future<Chunk> future, final RecordSink sink) throws IOException {
+        final Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        if (chunk.count > 0) {
+            sink.accept(chunk.records, chunk.count);
+        }
+    }
+
+    // 一块输入解析出来的记录
+    private static final class Chunk {
+        final byte[] records;
+        final int count;
+
+        Chunk(byte[] records, int count) {
+            this.records = records;
+            this.count = count;
+        }
+    }
+
+    // 解析从[start, end)中开始的行；最后一行可能越过end，要读到它的结尾
+    private Chunk parseChunk(final FileChannel in, final long start, final long end, final long size) throws IOException {
+        // 多读前一个字节，看这一块是不是正好从一行的开头开始
+        final long from = start > 0 ? start - 1 : 0;
+        byte[] text = new byte[(int) (end - from)];
+        int length = readFully(in, text, 0, text.length, from);
+        long pos = from + length;
+        while (length > 0 && text[length - 1] != '\n' && pos < size) {
+            final byte[] more = new byte[(int) Math.min(8192, size - pos)];
+            final int n = readFully(in, more, 0, more.length, pos);
+            int take = n;
+            for (int i = 0; i < n; i++) {
+                if (more[i] == '\n') {
+                    take = i + 1;
+                    break;
+                }
+            }
+            text = Arrays.copyOf(text, length + take);
+            System.arraycopy(more, 0, text, length, take);
+            length += take;
+            pos += n;
+        }
+
+        int i = 0;
+        if (start > 0) {
+            // 上一块里开始的那一行归上一块
+            while (i < length && text[i] != '\n') {
+                i++;
+            }
+            i++;
+        }
+        byte[] records = new byte[Math.max(1, Math.min(length / (2 * this.typeAr.length), 1024)) * this.recordSize];
+        int count = 0;
+        while (i < length) {
+            int lineEnd = i;
+            while (lineEnd < length && text[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if ((count + 1) * this.recordSize > records.length) {
+                records = Arrays.copyOf(records, records.length * 2);
+            }
+            final int result = parseLine(text, i, lineEnd, records, count * this.recordSize);
+            if (result > 0) {
+                count++;
+            } else if (result < 0) {
+                Arrays.fill(records, count * this.recordSize, (count + 1) * this.recordSize, (byte) 0);
+                System.out.println("BAD LINE : " + new String(text, i, lineEnd - i, StandardCharsets.ISO_8859_1));
+            }
+            i = lineEnd + 1;
+        }
+        return new Chunk(records, count);
+    }
+
+    private static int readFully(final FileChannel in, final byte[] dest, final int off, final int len, final long position) throws IOException {
+        final ByteBuffer buf = ByteBuffer.wrap(dest, off, len);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, position + buf.position() - off) < 0) {
+                break;
+            }
+        }
+        return buf.position() - off;
+    }
+
+    private static boolean isSpace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    // 把一行解析成一条记录写到dest的off处；空行返回0，格式不对返回-1
+    private int parseLine(final byte[] text, final int start, final int end, final byte[] dest, int off) {
+        int from = start;
+        while (from < end && isSpace(text[from])) {
+            from++;
+        }
+        if (from == end) {
+            return 0;
+        }
+        for (int field = 0; field < this.typeAr.length; field++) {
+            int to = from;
+            while (to < end && text[to] != this.fieldSeparator) {
+                to++;
+            }
+            // 最后一个字段后面不能再有分隔符，别的字段后面必须有
+            if ((to == end) != (field == this.typeAr.length - 1)) {
+                return -1;
+            }
+            int s = from;
+            int e = to;
+            while (s < e && isSpace(text[s])) {
+                s++;
+            }
+            while (e > s && isSpace(text[e - 1])) {
+                e--;
+            }
+            if (this.typeAr[field] == Type.INT_TYPE) {
+                final Integer value = parseInt(text, s, e);
+                if (value == null) {
+                    return -1;
+                }
+                putInt(dest, off, value);
+            } else {
+                final int len = Math.min(e - s, Type.STRING_LEN);
+                putInt(dest, off, len);
+                System.arraycopy(text, s, dest, off + 4, len);
+            }
+            off += this.typeAr[field].getLen();
+            from = to + 1;
+        }
+        return 1;
+    }
+
+    private static Integer parseInt(final byte[] text, int s, final int e) {
+        boolean negative = false;
+        if (s < e && (text[s] == '-' || text[s] == '+')) {
+            negative = text[s] == '-';
+            s++;
+        }
+        if (s == e) {
+            return null;
+        }
+        long value = 0;
+        for (int i = s; i < e; i++) {
+            final int digit = text[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return null;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return null;
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return null;
+        }
+        return (int) value;
+    }
+
+    private static void putInt(final byte[] dest, final int off, final int value) {
+        dest[off] = (byte) (value >>> 24);
+        dest[off + 1] = (byte) (value >>> 16);
+        dest[off + 2] = (byte) (value >>> 8);
+        dest[off + 3] = (byte) value;
+    }
+
+    /**
+     * Load the input file into a heap file of {@link HeapPageFormat#FIXED}
+     * pages. Pages are filled in input order and written to the output
+     * sequentially, many at a time. An empty input still makes one empty
+     * page.
+     *
+     * @param inFile     the text file to load
+     * @param outFile    the heap file to write, replaced if it exists
+     * @param npagebytes the number of bytes per page
+     * @return the number of pages written
+     * @throws IOException if a file cannot be read or written
+     */
+    public int loadHeapFile(File inFile, File outFile, int npagebytes) throws IOException {
+        final int nrecords = (npagebytes * 8) / (this.recordSize * 8 + 1);
+        final int nheaderbytes = (nrecords + 7) / 8;
+        final int pagesPerWrite = Math.max(1, WRITE_BYTES / npagebytes);
+        try (FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final HeapPageWriter writer = new HeapPageWriter(out, npagebytes, nrecords, nheaderbytes, pagesPerWrite);
+            parse(inFile, writer);
+            return writer.finish();
+        }
+    }
+
+    // 把记录按顺序填进页里，攒够一批页再顺序写出去
+    private final class HeapPageWriter implements RecordSink {
+        private final FileChannel out;
+        private final int npagebytes;
+        private final int nrecords;
+        private final int nheaderbytes;
+        private final byte[] batch;
+        // 当前页在batch中的序号，当前页已经放了几条记录
+        private int page;
+        private int slot;
+        private int pages;
+
+        HeapPageWriter(FileChannel out, int npagebytes, int nrecords, int nheaderbytes, int pagesPerWrite) {
+            this.out = out;
+            this.npagebytes = npagebytes;
+            this.nrecords = nrecords;
+            this.nheaderbytes = nheaderbytes;
+            this.batch = new byte[pagesPerWrite * npagebytes];
+        }
+
+        @Override
+        public void accept(byte[] records, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                final int base = this.page * this.npagebytes;
+                System.arraycopy(records, i * recordSize, this.batch, base + this.nheaderbytes + this.slot * recordSize, recordSize);
+                this.batch[base + this.slot / 8] |= (byte) (1 << (this.slot % 8));
+                if (++this.slot == this.nrecords) {
+                    nextPage();
+                }
+            }
+        }
+
+        private void nextPage() throws IOException {
+            this.slot = 0;
+            this.pages++;
+            if (++this.page * this.npagebytes == this.batch.length) {
+                write();
+            }
+        }
+
+        private void write() throws IOException {
+            final ByteBuffer buf = ByteBuffer.wrap(this.batch, 0, this.page * this.npagebytes);
+            while (buf.hasRemaining()) {
+                this.out.write(buf);
+            }
+            Arrays.fill(this.batch, 0, this.page * this.npagebytes, (byte) 0);
+            this.page = 0;
+        }
+
+        int finish() throws IOException {
+            // 最后一页不满也要写；输入是空的时候也写一个空页
+            if (this.slot > 0 || this.pages == 0) {
+                nextPage();
+            }
+            write();
+            return this.pages;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package simpledb.storage;
+
+import simpledb.util.PositionalFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Stores the pages of a compressed HeapFile as variable-size blocks.
+ * 压缩表的页存储：每页压缩以后是一个变长的块，页号到块的位置记在旁边的.pmap文件里
+ * <p>
+ * The data file holds the blocks; a map file next to it holds, for each page
+ * number, the offset, length and capacity of its block, 16 bytes per page.
+ * A write never overwrites the live block of its page: it writes a block in
+ * free space, and only then points the page's map entry at it, so a crash
+ * before the entry is written leaves the old version of the page readable.
+ * The old block is released, and reused by later writes once the map has
+ * been forced to disk, so an entry that still points at it after a crash
+ * finds it intact. Free space is not stored: it is the gaps between the
+ * blocks of the map, found again when the store is opened. Reads of blocks
+ * run concurrently and exclude
+ * writes, which are serialized; compressing and decompressing happen
+ * outside the lock. A page never written reads as an empty page, and a page
+ * the codec cannot make smaller is stored as is. A data file of plain pages,
+ * which has no map, is refused rather than taken for an empty store; see
+ * {@link #compress} to convert one.
+ */
+public class CompressedPageStore {
+
+    // 每页在.pmap里占的字节：块的偏移、长度、容量
+    private static final int ENTRY_SIZE = 16;
+    // 块的容量按这个取整，页变大一点时还能写回原来的块
+    private static final int BLOCK_ALIGN = 256;
+
+    private final PositionalFile data;
+    private final File mapFile;
+    private final PageCodec codec;
+    private final int pageSize;
+
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    // 写过的页数
+    private int numPages;
+    // 数据文件的末尾，空闲空间里放不下的新块从这里开始
+    private long end;
+    // 可以再用的空闲空间：偏移 -> 长度，相邻的合在一起
+    private final TreeMap<Long, Integer> free = new TreeMap<>();
+    // 刚被换下来的旧块，.pmap刷盘以后才能再用：偏移和容量
+    private final List<long[]> released = new ArrayList<>();
+    private RandomAccessFile out;
+    // 读块时拿读锁，写块和改位置时拿写锁
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @throws IllegalArgumentException if the data file holds data but has no map
+     */
+    public CompressedPageStore(PositionalFile data, File mapFile, PageCodec codec, int pageSize) {
+        this.data = data;
+        this.mapFile = mapFile;
+        this.codec = codec;
+        this.pageSize = pageSize;
+        this.offsets = new long[0];
+        this.lengths = new int[0];
+        this.capacities = new int[0];
+        // 数据文件是新的，旧的.pmap不属于它
+        if (mapFile.exists() && data.getFile().length() == 0) {
+            mapFile.delete();
+        }
+        // 有数据却没有.pmap，多半是没压缩过的表；当成空表的话第一次写就会覆盖掉原来的页
+        if (!mapFile.exists() && data.getFile().length() > 0) {
+            throw new IllegalArgumentException("No page map " + mapFile + " for non-empty " + data.getFile()
+                    + "; it is not a compressed table (convert it with CompressedPageStore.compress)");
+        }
+        if (mapFile.exists()) {
+            try {
+                final ByteBuffer map = ByteBuffer.wrap(Files.readAllBytes(mapFile.toPath()));
+                final int entries = map.capacity() / ENTRY_SIZE;
+                grow(entries);
+                for (int i = 0; i < entries; i++) {
+                    this.offsets[i] = map.getLong();
+                    this.lengths[i] = map.getInt();
+                    this.capacities[i] = map.getInt();
+                    if (this.lengths[i] > 0) {
+                        this.numPages = i + 1;
+                    }
+                }
+                findFreeSpace();
+            } catch (IOException e) {
+                // 页的位置丢了，页就读不回来了，不能当作空表
+                throw new RuntimeException("Cannot read page map " + mapFile, e);
+            }
+        }
+    }
+
+    private void grow(int entries) {
+        if (entries > this.offsets.length) {
+            final int n = Math.max(entries, this.offsets.length * 2);
+            this.offsets = Arrays.copyOf(this.offsets, n);
+            this.lengths = Arrays.copyOf(this.lengths, n);
+            this.capacities = Arrays.copyOf(this.capacities, n);
+        }
+    }
+
+    // 按.pmap重新算出数据文件的末尾和块之间的空闲空间
+    private void findFreeSpace() {
+        this.free.clear();
+        this.released.clear();
+        final TreeMap<Long, Integer> blocks = new TreeMap<>();
+        for (int i = 0; i < this.numPages; i++) {
+            if (this.lengths[i] > 0) {
+                blocks.put(this.offsets[i], this.capacities[i]);
+            }
+        }
+        long pos = 0;
+        for (final Map.Entry<Long, Integer> block : blocks.entrySet()) {
+            if (block.getKey() > pos) {
+                this.free.put(pos, (int) (block.getKey() - pos));
+            }
+            pos = Math.max(pos, block.getKey() + block.getValue());
+        }
+        this.end = pos;
+    }
+
+    // 把一段空间放回空闲空间，和前后相邻的合并
+    private void addFree(long offset, int capacity) {
+        final Map.Entry<Long, Integer> before = this.free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            this.free.remove(before.getKey());
+            offset = before.getKey();
+            capacity += before.getValue();
+        }
+        final Integer after = this.free.remove(offset + capacity);
+        if (after != null) {
+            capacity += after;
+        }
+        this.free.put(offset, capacity);
+    }
+
+    // 给一个新块找位置：先找空闲空间，不够再用换下来的旧块，最后放到文件末尾
+    private long allocate(final int capacity) throws IOException {
+        long offset = firstFit(capacity);
+        if (offset < 0 && !this.released.isEmpty()) {
+            // .pmap里已经不指向旧块了，这些修改落盘以后旧块才能被覆盖
+            force();
+            for (final long[] block : this.released) {
+                addFree(block[0], (int) block[1]);
+            }
+            this.released.clear();
+            offset = firstFit(capacity);
+        }
+        if (offset < 0) {
+            offset = this.end;
+            this.end += capacity;
+        }
+        return offset;
+    }
+
+    // 新块和.pmap都刷到磁盘上
+    private void force() throws IOException {
+        this.data.channel().force(false);
+        this.out.getFD().sync();
+    }
+
+    // 第一段放得下的空闲空间，用掉它的开头；没有时返回-1
+    private long firstFit(final int capacity) {
+        for (final Map.Entry<Long, Integer> extent : this.free.entrySet()) {
+            if (extent.getValue() >= capacity) {
+                this.free.remove(extent.getKey());
+                if (extent.getValue() > capacity) {
+                    this.free.put(extent.getKey() + capacity, extent.getValue() - capacity);
+                }
+                return extent.getKey();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of pages up to the last one written.
+     */
+    public int numPages() {
+        this.lock.readLock().lock();
+        try {
+            return this.numPages;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read and decompress page pageNo.
+     */
+    public byte[] read(int pageNo) throws IOException {
+        final byte[] block;
+        this.lock.readLock().lock();
+        try {
+            if (pageNo >= this.offsets.length || this.lengths[pageNo] == 0) {
+                return new byte[this.pageSize];
+            }
+            block = new byte[this.lengths[pageNo]];
+            this.data.read(ByteBuffer.wrap(block), this.offsets[pageNo]);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        final int length = block.length;
+        if (length == this.pageSize) {
+            return block;
+        }
+        final byte[] page = new byte[this.pageSize];
+        this.codec.decompress(block, length, page);
+        return page;
+    }
+
+    /**
+     * Compress and write page pageNo.
+     */
+    public void write(int pageNo, byte[] page) throws IOException {
+        byte[] block = this.codec.compress(page);
+        if (block.length >= this.pageSize) {
+            block = page;
+        }
+        this.lock.writeLock().lock();
+        try {
+            grow(pageNo + 1);
+            if (this.out == null) {
+                this.out = new RandomAccessFile(this.mapFile, "rw");
+            }
+            // 新的块写在别处，写完再改.pmap里的位置，中间崩溃时旧的块还在
+            final int capacity = (block.length + BLOCK_ALIGN - 1) / BLOCK_ALIGN * BLOCK_ALIGN;
+            final long offset = allocate(capacity);
+            this.data.write(ByteBuffer.wrap(block), offset);
+            final long oldOffset = this.offsets[pageNo];
+            final int oldCapacity = this.lengths[pageNo] > 0 ? this.capacities[pageNo] : 0;
+            this.offsets[pageNo] = offset;
+            this.capacities[pageNo] = capacity;
+            this.lengths[pageNo] = block.length;
+            this.numPages = Math.max(this.numPages, pageNo + 1);
+            persist(pageNo);
+            if (oldCapacity > 0) {
+                this.released.add(new long[]{oldOffset, oldCapacity});
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the pages from numPages on, and give back the end of the data
+     * file that only their blocks used.
+     */
+    public void truncate(int numPages) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            for (int i = numPages; i < Math.min(this.numPages, this.offsets.length); i++) {
+                this.offsets[i] = 0;
+                this.lengths[i] = 0;
+                this.capacities[i] = 0;
+            }
+            this.numPages = Math.min(this.numPages, numPages);
+            if (this.out == null) {
+                this.out = new RandomAccessFile(this.mapFile, "rw");
+            }
+            this.out.setLength(Math.min(this.out.length(), (long) numPages * ENTRY_SIZE));
+            // 换下来的旧块和被截掉的页的块都要等.pmap落盘以后才能再用
+            force();
+            findFreeSpace();
+            this.data.truncate(this.end);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write a compressed copy of a file of plain pages, such as one written by
+     * {@link HeapFileEncoder}, to outFile and its map, replacing them.
+     *
+     * @param rawFile  the file of plain pages
+     * @param outFile  the data file of the compressed copy
+     * @param codec    the page codec
+     * @param pageSize the page size of rawFile
+     * @return the number of pages
+     */
+    public static int compress(File rawFile, File outFile, PageCodec codec, int pageSize) throws IOException {
+        final File mapFile = new File(outFile.getPath() + ".pmap");
+        Files.deleteIfExists(outFile.toPath());
+        Files.deleteIfExists(mapFile.toPath());
+        final PositionalFile raw = new PositionalFile(rawFile);
+        final PositionalFile data = new PositionalFile(outFile);
+        final CompressedPageStore store = new CompressedPageStore(data, mapFile, codec, pageSize);
+        try {
+            final byte[] page = new byte[pageSize];
+            int pageNo = 0;
+            while (true) {
+                Arrays.fill(page, (byte) 0);
+                // 最后一页不完整时后面补0
+                if (raw.read(ByteBuffer.wrap(page), (long) pageNo * pageSize) <= 0) {
+                    break;
+                }
+                store.write(pageNo++, page);
+            }
+            return pageNo;
+        } finally {
+            store.close();
+            data.close();
+            raw.close();
+        }
+    }
+
+    /**
+     * Close the map file.
+     */
+    public void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            if (this.out != null) {
+                this.out.close();
+                this.out = null;
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void persist(int pageNo) throws IOException {
+        if (this.out == null) {
+            this.out = new RandomAccessFile(this.mapFile, "rw");
+        }
+        final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putLong(this.offsets[pageNo]).putInt(this.lengths[pageNo]).putInt(this.capacities[pageNo]);
+        this.out.seek((long) pageNo * ENTRY_SIZE);
+        this.out.write(entry.array());
+    }
+}
@@ -23,6 +23,17 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Create a page of this file from its image, as {@link #readPage} would
+     * after reading the bytes from disk; used when the bytes come from
+     * somewhere else, such as an off-heap cache.
+     *
+     * @return the page, or null if this file cannot create pages from bytes
+     */
+    default Page createPage(PageId id, byte[] data) {
+        return null;
+    }
+
     /**
      * Push the specified page to disk.
      * 将一个页写入内存中
@@ -32,6 +43,20 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk. Files that can should sort
+     * the pages and write adjacent ones together, rather than one write per
+     * page.
+     *
+     * @param pages the pages to write, in any order
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (final Page page : pages) {
+            writePage(page);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -90,4 +115,32 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Choose how this file reads pages from disk. Files that only support
+     * {@link IoMode#BUFFERED} reject any other mode.
+     *
+     * @throws UnsupportedOperationException if this file does not support the mode
+     */
+    default void setIoMode(IoMode ioMode) {
+        if (ioMode != IoMode.BUFFERED) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support " + ioMode);
+        }
+    }
+
+    /**
+     * @return how this file reads pages from disk.
+     */
+    default IoMode getIoMode() {
+        return IoMode.BUFFERED;
+    }
+
+    /**
+     * @return the size of the pages of this file in bytes; the database page
+     * size unless the file was created with its own.
+     * @see BufferPool#getPageSize()
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
 }
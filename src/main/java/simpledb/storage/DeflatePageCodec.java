@@ -0,0 +1,76 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The default PageCodec: raw deflate at its fastest level, which is mostly
+ * LZ77 matching and compresses the zero padding and repeated values of
+ * SimpleDB pages well at little CPU cost.
+ * 默认的编解码器：最快档的deflate
+ * <p>
+ * Deflaters and inflaters hold native memory, so each thread keeps one of
+ * each and reuses it.
+ */
+public class DeflatePageCodec implements PageCodec {
+
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters;
+
+    public DeflatePageCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level the deflate level, from Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION
+     */
+    public DeflatePageCodec(int level) {
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level, true));
+        this.inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    }
+
+    @Override
+    public byte[] compress(byte[] page) {
+        final Deflater deflater = this.deflaters.get();
+        deflater.reset();
+        deflater.setInput(page);
+        deflater.finish();
+        // 压不小的页也不会比原来长多少
+        byte[] out = new byte[page.length + 64];
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            n += deflater.deflate(out, n, out.length - n);
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    @Override
+    public void decompress(byte[] src, int length, byte[] page) throws IOException {
+        final Inflater inflater = this.inflaters.get();
+        inflater.reset();
+        inflater.setInput(src, 0, length);
+        try {
+            int n = 0;
+            while (n < page.length && !inflater.finished()) {
+                final int read = inflater.inflate(page, n, page.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != page.length) {
+                throw new IOException("Compressed page has " + n + " bytes instead of " + page.length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Sorts records on a key field with bounded memory.
+ * 外部排序：内存里放不下的记录先排好序分批写到临时文件，最后多路归并
+ * <p>
+ * Records, in the fixed-size form of a tuple in a heap page, are collected
+ * in a run buffer of about the given budget. A full buffer is sorted, in
+ * parallel, and spilled to a temporary file; at the end the runs are merged
+ * with a heap, reading each through a buffer of its share of the budget.
+ * Input that fits in one run is never written out. The sort is stable:
+ * records with equal keys come out in the order they were added.
+ *
+ * @see BulkLoader
+ */
+public class ExternalSorter implements BulkLoader.RecordSink, Closeable {
+
+    // 归并时每个临时文件至少用这么大的读缓冲
+    private static final int MIN_READ_BUFFER = 8192;
+
+    private final TupleDesc td;
+    private final int recordSize;
+    private final Type keyType;
+    // 键在记录中的偏移
+    private final int keyOffset;
+    private final long memoryBytes;
+
+    // 一批最多的记录数
+    private final int maxRecords;
+    // 当前的一批记录，按需变大
+    private byte[] run;
+    private int count;
+    // 已经写出去的批，和归并时读它们的流
+    private final List<File> runs;
+    private final List<RunReader> readers;
+
+    /**
+     * @param td          the schema of the records
+     * @param keyField    the field the records are sorted on
+     * @param memoryBytes about how much memory the sort may take
+     */
+    public ExternalSorter(TupleDesc td, int keyField, long memoryBytes) {
+        this.td = td;
+        this.recordSize = td.getSize();
+        this.keyType = td.getFieldType(keyField);
+        int offset = 0;
+        for (int i = 0; i < keyField; i++) {
+            offset += td.getFieldType(i).getLen();
+        }
+        this.keyOffset = offset;
+        this.memoryBytes = memoryBytes;
+        // 排序时每条记录还要一个long的下标
+        this.maxRecords = (int) Math.max(1, Math.min(memoryBytes / (this.recordSize + Long.BYTES), Integer.MAX_VALUE / this.recordSize));
+        this.run = new byte[Math.min(this.maxRecords, 1024) * this.recordSize];
+        this.runs = new ArrayList<>();
+        this.readers = new ArrayList<>();
+    }
+
+    /**
+     * Add count records to the sort, spilling a run when the buffer fills.
+     */
+    @Override
+    public void accept(byte[] records, int count) throws IOException {
+        int from = 0;
+        while (from < count) {
+            if (this.count * this.recordSize == this.run.length) {
+                this.run = Arrays.copyOf(this.run, Math.min(this.maxRecords, 2 * this.count) * this.recordSize);
+            }
+            final int room = this.run.length / this.recordSize - this.count;
+            final int n = Math.min(room, count - from);
+            System.arraycopy(records, from * this.recordSize, this.run, this.count * this.recordSize, n * this.recordSize);
+            this.count += n;
+            from += n;
+            if (this.count == this.maxRecords) {
+                spill();
+            }
+        }
+    }
+
+    private static int getInt(final byte[] b, final int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    // 比较两条记录的键：字符串按字节比较，和StringField一样
+    private int compareKeys(final byte[] a, final int aOff, final byte[] b, final int bOff) {
+        final int x = aOff + this.keyOffset;
+        final int y = bOff + this.keyOffset;
+        if (this.keyType == Type.INT_TYPE) {
+            return Integer.compare(getInt(a, x), getInt(b, y));
+        }
+        final int aLen = getInt(a, x);
+        final int bLen = getInt(b, y);
+        for (int i = 0; i < Math.min(aLen, bLen); i++) {
+            final int cmp = Integer.compare(a[x + 4 + i] & 0xff, b[y + 4 + i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(aLen, bLen);
+    }
+
+    // 当前这批记录排好序以后的顺序
+    private int[] sortRun() {
+        final int[] order = new int[this.count];
+        if (this.keyType == Type.INT_TYPE) {
+            // 键放在高32位，下标放在低32位，排序一个long数组就够了，相等的键保持原来的顺序
+            final long[] keys = new long[this.count];
+            for (int i = 0; i < this.count; i++) {
+                keys[i] = ((long) getInt(this.run, i * this.recordSize + this.keyOffset) << 32) | i;
+            }
+            Arrays.parallelSort(keys);
+            for (int i = 0; i < this.count; i++) {
+                order[i] = (int) keys[i];
+            }
+        } else {
+            final Integer[] boxed = new Integer[this.count];
+            for (int i = 0; i < this.count; i++) {
+                boxed[i] = i;
+            }
+            Arrays.parallelSort(boxed, (p, q) -> {
+                final int cmp = compareKeys(this.run, p * this.recordSize, this.run, q * this.recordSize);
+                return cmp != 0 ? cmp : Integer.compare(p, q);
+            });
+            for (int i = 0; i < this.count; i++) {
+                order[i] = boxed[i];
+            }
+        }
+        return order;
+    }
+
+    // 排好序写到一个临时文件中
+    private void spill() throws IOException {
+        final int[] order = sortRun();
+        final File file = File.createTempFile("sortrun", ".tmp");
+        file.deleteOnExit();
+        this.runs.add(file);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+            for (final int i : order) {
+                out.write(this.run, i * this.recordSize, this.recordSize);
+            }
+        }
+        this.count = 0;
+    }
+
+    /**
+     * Finish adding records and return them in key order. The sorter cannot
+     * take more records afterwards.
+     *
+     * @throws IOException if a run cannot be written or read
+     */
+    public Iterator<Tuple> sorted() throws IOException {
+        if (this.runs.isEmpty()) {
+            // 一批就放下了，不用写临时文件
+            final int[] order = sortRun();
+            final ByteBuffer buf = ByteBuffer.wrap(this.run);
+            return new Iterator<Tuple>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < order.length;
+                }
+
+                @Override
+                public Tuple next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return new Tuple(td, buf, order[this.next++] * recordSize);
+                }
+            };
+        }
+        if (this.count > 0) {
+            spill();
+        }
+        this.run = null;
+        final int bufferSize = (int) Math.max(MIN_READ_BUFFER, Math.min(1 << 20, this.memoryBytes / this.runs.size()));
+        final PriorityQueue<RunReader> heap = new PriorityQueue<>((p, q) -> {
+            final int cmp = compareKeys(p.current, 0, q.current, 0);
+            return cmp != 0 ? cmp : Integer.compare(p.runNo, q.runNo);
+        });
+        for (int i = 0; i < this.runs.size(); i++) {
+            final RunReader reader = new RunReader(this.runs.get(i), i, bufferSize);
+            this.readers.add(reader);
+            if (reader.advance()) {
+                heap.add(reader);
+            }
+        }
+        return new Iterator<Tuple>() {
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public Tuple next() {
+                final RunReader reader = heap.poll();
+                if (reader == null) {
+                    throw new NoSuchElementException();
+                }
+                final Tuple t = new Tuple(td, ByteBuffer.wrap(reader.current), 0);
+                try {
+                    if (reader.advance()) {
+                        heap.add(reader);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return t;
+            }
+        };
+    }
+
+    // 顺序读一个临时文件，current是当前的记录
+    private final class RunReader {
+        final int runNo;
+        private final DataInputStream in;
+        byte[] current;
+        private boolean closed;
+
+        RunReader(File file, int runNo, int bufferSize) throws IOException {
+            this.runNo = runNo;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+        }
+
+        boolean advance() throws IOException {
+            // 每条记录都是新的数组，交出去的行还在用上一条
+            final byte[] record = new byte[recordSize];
+            try {
+                this.in.readFully(record);
+            } catch (EOFException e) {
+                close();
+                this.current = null;
+                return false;
+            }
+            this.current = record;
+            return true;
+        }
+
+        void close() throws IOException {
+            if (!this.closed) {
+                this.closed = true;
+                this.in.close();
+            }
+        }
+    }
+
+    /**
+     * Delete the temporary files of the runs.
+     */
+    @Override
+    public void close() {
+        for (final RunReader reader : this.readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.readers.clear();
+        for (final File file : this.runs) {
+            file.delete();
+        }
+        this.runs.clear();
+    }
+}
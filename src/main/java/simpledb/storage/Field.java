@@ -4,6 +4,7 @@ import simpledb.execution.Predicate;
 import simpledb.common.Type;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -18,6 +19,16 @@ public interface Field extends Serializable {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into the buffer at the given
+     * absolute offset, in the same format as {@link #serialize(DataOutputStream)}.
+     * Does not change the position of the buffer.
+     *
+     * @param buf    The buffer to write to.
+     * @param offset The absolute offset of the field in the buffer.
+     */
+    void serialize(ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      *
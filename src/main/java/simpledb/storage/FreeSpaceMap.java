@@ -0,0 +1,155 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * FreeSpaceMap records approximately how many free slots each page of a
+ * HeapFile has, so an insert can go straight to a page with room.
+ * 空闲空间表：每页一个字节，记录这一页大概还有几个空槽，插入时不需要逐页去找
+ * <p>
+ * The map is kept in memory and persisted to a side file next to the heap
+ * file, a {@link SideFileHeader} followed by one byte per page. 0 means the page has not been looked at yet, 1
+ * that it is full, and n > 1 that it has about n - 1 free slots (capped at
+ * 254). The map is only a hint: the page itself is always checked before a
+ * tuple goes in, and the byte is refreshed from the page whenever it is
+ * written to disk.
+ */
+public class FreeSpaceMap {
+
+    // 还没看过这一页
+    private static final int UNKNOWN = 0;
+    // 这一页满了
+    private static final int FULL = 1;
+    // 一个字节能记下的最大空槽数
+    private static final int MAX_FREE = 254;
+    private static final int MAGIC = 0x46534D50;
+
+    private final File file;
+    private final File dataFile;
+    private byte[] entries;
+    // 上一次找到空位的页，下一次从这里开始找
+    private int cursor;
+    private RandomAccessFile out;
+
+    /**
+     * Open the free-space map of dataFile stored in the given file, or start
+     * an empty one if the file does not exist. A map whose header does not
+     * match the data file was not kept up to date with it (the data file was
+     * rewritten by other means), so it is thrown away.
+     */
+    public FreeSpaceMap(File file, File dataFile) {
+        this.file = file;
+        this.dataFile = dataFile;
+        byte[] entries = new byte[0];
+        if (file.exists()) {
+            try {
+                final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+                if (SideFileHeader.matches(buf, MAGIC, dataFile)) {
+                    entries = Arrays.copyOfRange(buf.array(), SideFileHeader.SIZE, buf.capacity());
+                } else {
+                    file.delete();
+                }
+            } catch (IOException e) {
+                // 读不出来就当作所有页都没看过
+                e.printStackTrace();
+            }
+        }
+        this.entries = entries;
+        this.cursor = 0;
+    }
+
+    /**
+     * Find a page among the first numPages that may have a free slot: one
+     * known to have room, or one never looked at.
+     *
+     * @return the page number, or -1 if every page is known to be full
+     */
+    public synchronized int findPage(int numPages) {
+        if (numPages == 0) {
+            return -1;
+        }
+        final int start = this.cursor < numPages ? this.cursor : 0;
+        for (int i = 0; i < numPages; i++) {
+            final int pageNo = (start + i) % numPages;
+            if (entry(pageNo) != FULL) {
+                this.cursor = pageNo;
+                return pageNo;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the approximate number of free slots on the page, or -1 if unknown
+     */
+    public synchronized int getFreeSlots(int pageNo) {
+        final int entry = entry(pageNo);
+        return entry == UNKNOWN ? -1 : entry - 1;
+    }
+
+    /**
+     * Record the number of free slots of a page in memory.
+     */
+    public synchronized void update(int pageNo, int freeSlots) {
+        if (pageNo >= this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, Math.max(pageNo + 1, this.entries.length * 2));
+        }
+        this.entries[pageNo] = (byte) (Math.min(freeSlots, MAX_FREE) + 1);
+    }
+
+    /**
+     * Record the number of free slots of pages being written and write their
+     * bytes to the side file, one write for each run of adjacent pages.
+     */
+    public synchronized void persist(List<TuplePage> pages) throws IOException {
+        final int[] pageNos = new int[pages.size()];
+        for (int i = 0; i < pageNos.length; i++) {
+            pageNos[i] = pages.get(i).getId().getPageNumber();
+            update(pageNos[i], pages.get(i).getNumEmptySlots());
+        }
+        Arrays.sort(pageNos);
+        if (this.out == null) {
+            this.out = new RandomAccessFile(this.file, "rw");
+        }
+        SideFileHeader.write(this.out, MAGIC, this.dataFile);
+        int first = 0;
+        while (first < pageNos.length) {
+            // 找出从first开始页号连续的一段，一次写出去
+            int last = first + 1;
+            while (last < pageNos.length && pageNos[last] <= pageNos[last - 1] + 1) {
+                last++;
+            }
+            this.out.seek(SideFileHeader.SIZE + pageNos[first]);
+            this.out.write(this.entries, pageNos[first], pageNos[last - 1] - pageNos[first] + 1);
+            first = last;
+        }
+    }
+
+    /**
+     * Forget the pages from numPages on, after the heap file was cut to
+     * numPages pages.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        if (numPages < this.entries.length) {
+            Arrays.fill(this.entries, numPages, this.entries.length, (byte) UNKNOWN);
+        }
+        if (this.cursor >= numPages) {
+            this.cursor = 0;
+        }
+        if (this.out == null) {
+            this.out = new RandomAccessFile(this.file, "rw");
+        }
+        SideFileHeader.write(this.out, MAGIC, this.dataFile);
+        this.out.setLength(Math.min(this.out.length(), SideFileHeader.SIZE + numPages));
+    }
+
+    private int entry(int pageNo) {
+        return pageNo < this.entries.length ? this.entries[pageNo] & 0xFF : UNKNOWN;
+    }
+}
@@ -3,19 +3,27 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.util.HeapFileIterator;
+import simpledb.util.PositionalFile;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor; a HeapFile can also use slotted pages with variable-length
+ * records, see {@link HeapPageFormat}.
  *
  * @author Sam Madden
  */
@@ -23,7 +31,28 @@ public class HeapFile implements DbFile {
 
     private final File file;
     private final TupleDesc td;
-    private RandomAccessFile randomAccessFile;
+    // 按位置读写页，并发的缺页可以同时读
+    private final PositionalFile pageFile;
+    // 内存映射模式下按段映射文件，每段最多这么多字节
+    private static final int SEGMENT_BYTES = 1 << 26;
+
+    private volatile IoMode ioMode;
+    // 段号 -> 这一段的映射，文件变长后重新映射
+    private final Map<Integer, MappedByteBuffer> segments;
+    // 空闲空间表，保存在旁边的.fsm文件中
+    private final FreeSpaceMap freeSpaceMap;
+    // 每页每列的最小值和最大值，保存在旁边的.zmap文件中
+    private final ZoneMap zoneMap;
+    // 用到的页数（高水位），文件末尾可能还有预分配的空页
+    private final AtomicInteger numPages;
+    // 文件不够用时一次扩展的页数
+    private volatile int extentPages;
+    // 页的格式
+    private final HeapPageFormat format;
+    // 压缩表的页存储，不压缩时为null
+    private final CompressedPageStore compressed;
+    // 页的字节数
+    private final int pageSize;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -33,15 +62,132 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, HeapPageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages have
+     * the given format.
+     *
+     * @param f      the file that stores the on-disk backing store for this heap file.
+     * @param format the layout of the pages of the file
+     */
+    public HeapFile(File f, TupleDesc td, HeapPageFormat format) {
+        this(f, td, format, null);
+    }
+
+    /**
+     * Constructs a compressed heap file: pages are compressed with the codec
+     * into variable-size blocks of the file when written, and read back into
+     * regular pages, so the file costs fewer bytes of I/O at the price of
+     * some CPU. The position of each page is kept in a .pmap file next to the
+     * file. Compressed files do not support {@link IoMode#MMAP}.
+     *
+     * @param f      the file that stores the on-disk backing store for this heap file.
+     * @param format the layout of the pages of the file
+     * @param codec  the page codec, or null for an uncompressed file
+     * @see CompressedPageStore
+     */
+    public HeapFile(File f, TupleDesc td, HeapPageFormat format, PageCodec codec) {
+        this(f, td, format, codec, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file whose pages are of the given size instead of the
+     * database page size: large pages cut per-page overhead and the number
+     * of reads for tables that are mostly scanned, while tables read a row at
+     * a time keep small ones. The page size of a file cannot change once it
+     * holds data.
+     *
+     * @param f        the file that stores the on-disk backing store for this heap file.
+     * @param format   the layout of the pages of the file
+     * @param codec    the page codec, or null for an uncompressed file
+     * @param pageSize the page size of the file, see {@link BufferPool#checkTablePageSize}
+     * @throws IllegalArgumentException if the page size is neither the database
+     *                                  page size nor one a table can choose
+     */
+    public HeapFile(File f, TupleDesc td, HeapPageFormat format, PageCodec codec, int pageSize) {
+        if (pageSize != BufferPool.getPageSize()) {
+            BufferPool.checkTablePageSize(pageSize);
+        }
+        this.pageSize = pageSize;
         this.file = f;
         this.td = td;
+        this.format = format;
+        // 临时表旁边的文件随着临时表一起删掉
+        if (PositionalFile.isTemporary(f)) {
+            for (final String suffix : new String[]{".fsm", ".zmap", ".pmap"}) {
+                new File(f.getPath() + suffix).deleteOnExit();
+            }
+        }
+        this.freeSpaceMap = new FreeSpaceMap(new File(f.getPath() + ".fsm"), f);
+        this.pageFile = new PositionalFile(f);
+        this.ioMode = IoMode.BUFFERED;
+        this.segments = new ConcurrentHashMap<>();
+        this.compressed = codec == null ? null
+                : new CompressedPageStore(this.pageFile, new File(f.getPath() + ".pmap"), codec, pageSize);
+        this.zoneMap = new ZoneMap(new File(f.getPath() + ".zmap"), f, td, this::readPageImage);
+        this.numPages = new AtomicInteger(this.compressed == null ? countPages() : this.compressed.numPages());
+        this.extentPages = BufferPool.DEFAULT_EXTENT_PAGES;
+    }
+
+    // 磁盘上第pageNo页的内容，读不出来返回null
+    private byte[] readPageImage(final int pageNo) {
         try {
-            this.randomAccessFile = new RandomAccessFile(this.file, "rw");
-        } catch (FileNotFoundException e) {
+            if (this.compressed != null) {
+                return this.compressed.read(pageNo);
+            }
+            final byte[] image = new byte[this.pageSize];
+            return this.pageFile.read(ByteBuffer.wrap(image), (long) this.pageSize * pageNo) > 0 ? image : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // 文件末尾预分配了但还没用到的页不算在页数里
+    private int countPages() {
+        try {
+            return (int) Math.ceil(this.pageFile.usedSize() * 1.0 / this.pageSize);
+        } catch (IOException e) {
             e.printStackTrace();
+            return (int) Math.ceil(this.file.length() * 1.0 / this.pageSize);
         }
     }
 
+    /**
+     * Set how many pages the file grows by when an insert finds no page with
+     * room. Growing by several pages at once costs one file extension per
+     * extent instead of one per page.
+     */
+    public void setExtentPages(int extentPages) {
+        if (extentPages < 1) {
+            throw new IllegalArgumentException("An extent has at least one page");
+        }
+        this.extentPages = extentPages;
+    }
+
+    /**
+     * Returns the layout of the pages of this file.
+     */
+    public HeapPageFormat getPageFormat() {
+        return this.format;
+    }
+
+    /**
+     * Returns the size of the pages of this file in bytes.
+     */
+    @Override
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    /**
+     * Returns true if the pages of this file are stored compressed.
+     */
+    public boolean isCompressed() {
+        return this.compressed != null;
+    }
+
     /**
      * Returns the File backing this HeapFile on disk.
      *
@@ -77,22 +223,113 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    /**
+     * Choose how pages are read. In {@link IoMode#MMAP} mode pages are slices
+     * of read-only mappings of the file; HeapPage copies them before they are
+     * modified, and writes still go through the file channel.
+     */
+    @Override
+    public void setIoMode(IoMode ioMode) {
+        if (this.compressed != null && ioMode != IoMode.BUFFERED) {
+            throw new UnsupportedOperationException("Compressed HeapFile does not support " + ioMode);
+        }
+        this.ioMode = ioMode;
+        this.segments.clear();
+    }
+
+    @Override
+    public IoMode getIoMode() {
+        return this.ioMode;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        //
-        final int pos = BufferPool.getPageSize() * pid.getPageNumber();
-        byte[] pageData = new byte[BufferPool.getPageSize()];
+        final Page page = readPageData(pid);
+        if (page instanceof TuplePage) {
+            this.zoneMap.read((TuplePage) page);
+        }
+        return page;
+    }
+
+    private Page readPageData(PageId pid) {
+        // 预分配的页虽然在文件中，但还不属于这个表
+        if (pid.getPageNumber() >= this.numPages.get() && pid.getPageNumber() >= numPages()) {
+            throw new IllegalArgumentException("Read past end of table: page " + pid.getPageNumber());
+        }
+        // 压缩表读出块来解压成一个普通的页
+        if (this.compressed != null) {
+            try {
+                return this.format.createPage((HeapPageId) pid, ByteBuffer.wrap(this.compressed.read(pid.getPageNumber())));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        // 内存映射模式下直接返回映射的切片，不复制
+        if (this.ioMode == IoMode.MMAP) {
+            try {
+                final ByteBuffer slice = mappedPage(pid.getPageNumber());
+                if (slice != null) {
+                    return this.format.createPage((HeapPageId) pid, slice);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        final long pos = (long) this.pageSize * pid.getPageNumber();
+        final byte[] pageData = new byte[this.pageSize];
         try {
-            this.randomAccessFile.seek(pos);
-            this.randomAccessFile.read(pageData, 0, pageData.length);
-            return new HeapPage((HeapPageId) pid, pageData);
+            // 读满一页才返回，文件末尾不完整的页后面补0
+            final int n = this.pageFile.read(ByteBuffer.wrap(pageData), pos);
+            if (n <= 0) {
+                throw new IllegalArgumentException("Read past end of table: page " + pid.getPageNumber());
+            }
+            return this.format.createPage((HeapPageId) pid, ByteBuffer.wrap(pageData));
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    @Override
+    public Page createPage(PageId pid, byte[] data) {
+        return this.format.createPage((HeapPageId) pid, ByteBuffer.wrap(data));
+    }
+
+    // 返回第pageNo页在映射中的切片，页不完整或者超出文件末尾时返回null
+    private ByteBuffer mappedPage(final int pageNo) throws IOException {
+        final int pageSize = this.pageSize;
+        final int segmentPages = Math.max(1, SEGMENT_BYTES / pageSize);
+        final int segmentNo = pageNo / segmentPages;
+        final int pos = (pageNo % segmentPages) * pageSize;
+        MappedByteBuffer segment = this.segments.get(segmentNo);
+        if (segment == null || segment.capacity() < pos + pageSize) {
+            // 文件变长了，重新映射这一段
+            segment = mapSegment(segmentNo, segmentPages, pageSize);
+            if (segment.capacity() < pos + pageSize) {
+                return null;
+            }
+        }
+        final ByteBuffer slice = segment.duplicate();
+        slice.position(pos);
+        slice.limit(pos + pageSize);
+        return slice.slice();
+    }
+
+    private synchronized MappedByteBuffer mapSegment(final int segmentNo, final int segmentPages, final int pageSize) throws IOException {
+        final long start = (long) segmentNo * segmentPages * pageSize;
+        final long available = Math.max(0L, this.pageFile.size() - start);
+        // 只映射完整的页
+        final long size = Math.min((long) segmentPages * pageSize, available / pageSize * pageSize);
+        MappedByteBuffer segment = this.segments.get(segmentNo);
+        if (segment == null || segment.capacity() < size) {
+            segment = this.pageFile.channel().map(FileChannel.MapMode.READ_ONLY, start, size);
+            this.segments.put(segmentNo, segment);
+        }
+        return segment;
+    }
+
     // see DbFile.java for javadocs
 
     /**
@@ -103,10 +340,60 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        final int pos = BufferPool.getPageSize() * page.getId().getPageNumber();
-        this.randomAccessFile.seek(pos);
-        final byte[] pageData = page.getPageData();
-        this.randomAccessFile.write(pageData);
+        final byte[] image = page.getPageData();
+        if (this.compressed != null) {
+            this.compressed.write(page.getId().getPageNumber(), image);
+        } else {
+            final long pos = (long) this.pageSize * page.getId().getPageNumber();
+            this.pageFile.write(ByteBuffer.wrap(image), pos);
+        }
+        this.numPages.accumulateAndGet(page.getId().getPageNumber() + 1, Math::max);
+        persistMaps(Collections.singletonList(page), Collections.singletonList(image));
+    }
+
+    // 顺便更新空闲空间表和区域映射，一批页只写一次旁边的文件
+    private void persistMaps(final List<Page> pages, final List<byte[]> images) throws IOException {
+        final List<TuplePage> tuplePages = new ArrayList<>(pages.size());
+        final List<byte[]> tupleImages = new ArrayList<>(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i) instanceof TuplePage) {
+                tuplePages.add((TuplePage) pages.get(i));
+                tupleImages.add(images.get(i));
+            }
+        }
+        if (!tuplePages.isEmpty()) {
+            this.freeSpaceMap.persist(tuplePages);
+            this.zoneMap.persist(tuplePages, tupleImages);
+        }
+    }
+
+    // 按页号排序，相邻的页合并成一次聚集写
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        final List<byte[]> images = new ArrayList<>(pages.size());
+        for (final Page page : pages) {
+            images.add(page.getPageData());
+        }
+        if (this.compressed != null) {
+            // 压缩以后的块大小不一，没法合并成一次写
+            for (int i = 0; i < pages.size(); i++) {
+                this.compressed.write(pages.get(i).getId().getPageNumber(), images.get(i));
+            }
+        } else {
+            final long[] positions = new long[pages.size()];
+            final ByteBuffer[] buffers = new ByteBuffer[pages.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                positions[i] = (long) this.pageSize * pages.get(i).getId().getPageNumber();
+                buffers[i] = ByteBuffer.wrap(images.get(i));
+            }
+            this.pageFile.writeAll(positions, buffers);
+            // 一批页写完才把高水位记到磁盘上，追加一页不用多写一次
+            this.pageFile.flush();
+        }
+        for (final Page page : pages) {
+            this.numPages.accumulateAndGet(page.getId().getPageNumber() + 1, Math::max);
+        }
+        persistMaps(pages, images);
     }
 
     /**
@@ -115,9 +402,17 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        // 向上取整
-        // TODO 向上取整，可能会出问题
-        return (int) Math.ceil(this.file.length() * 1.0 / BufferPool.getPageSize());
+        // 文件长度里还包括预分配的页，所以页数记在内存里；
+        // 只有文件被别人直接加长时（长度超过了自己分配的）才按长度算
+        try {
+            final long length = this.compressed == null ? this.pageFile.checkExternalGrowth() : -1;
+            if (length > 0) {
+                this.numPages.accumulateAndGet((int) Math.ceil(length * 1.0 / this.pageSize), Math::max);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return this.numPages.get();
     }
 
     // see DbFile.java for javadocs
@@ -127,34 +422,63 @@ public class HeapFile implements DbFile {
         // some code goes here
         // 脏页列表，说明这个页在内存中已经修改，但是还没有写入到磁盘
         final ArrayList<Page> dirtyPageList = new ArrayList<>();
-        // 遍历bufferPool中的页，寻找空槽
-        for (int i = 0; i < this.numPages(); i++) {
-            final HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
-            // 一个页是随机读取的，只要文件中的任意一个页，并且那个页中有空槽，就可以将一条记录（行）插入到那个槽中
-            if (page != null && page.getNumEmptySlots() > 0) {
+        final BufferPool bufferPool = Database.getBufferPool();
+        final int numPages = this.numPages.get();
+        // 从空闲空间表中找可能有空槽的页，每一轮要么插入成功，要么确认一页已满，所以最多numPages轮
+        int pageNo;
+        while ((pageNo = this.freeSpaceMap.findPage(Math.min(numPages, this.numPages.get()))) >= 0) {
+            final HeapPageId pid = new HeapPageId(getId(), pageNo);
+            final boolean held = bufferPool.holdsLock(tid, pid);
+            final TuplePage page;
+            try {
+                page = (TuplePage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            } catch (IllegalArgumentException e) {
+                // 等锁的时候这一页被整理截掉了
+                if (pageNo < this.numPages.get()) {
+                    throw e;
+                }
+                continue;
+            }
+            if (page.canInsert(t)) {
                 page.insertTuple(t);
+                this.freeSpaceMap.update(pageNo, page.getNumEmptySlots());
+                this.zoneMap.insert(page, t);
                 // 标记这个页是脏页，后面得刷到文件中
                 page.markDirty(true, tid);
                 dirtyPageList.add(page);
-                break;
+                return dirtyPageList;
+            }
+            // 空闲空间表过时了，这一页其实是满的（变长记录时是放不下这一行）；
+            // 先当作满页，免得一直找到它；没有修改它，所以可以把为它拿的写锁放掉
+            this.freeSpaceMap.update(pageNo, 0);
+            if (!held) {
+                bufferPool.unsafeReleasePage(tid, pid);
             }
         }
         // That means all pages are full, we should create a new page.
         // 走到这个分支，说明现在这个文件占有的所有页都已经满了，要新增一个页
-        if (dirtyPageList.size() == 0) {
-            // 新建一个空页，页的编号是现在的页的数量（因为从0开始）
-            final HeapPageId heapPageId = new HeapPageId(getId(), this.numPages());
-            HeapPage newPage = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
-            // 先把这个空页写到磁盘中
-            writePage(newPage);
-            // Through buffer pool to get newPage
-            // 这一步会先从缓存中拿，再从文件中拿，所以一定能拿到，并且会加入到缓存中
-            newPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-            // 将这条记录写入内存页，并标记为脏页
-            newPage.insertTuple(t);
-            newPage.markDirty(true, tid);
-            dirtyPageList.add(newPage);
+        final HeapPageId heapPageId;
+        synchronized (this) {
+            // 新建一个空页，页的编号是现在的页的数量（因为从0开始）；加锁防止两个事务追加同一页
+            final int newPageNo = this.numPages.get();
+            final int pageSize = this.pageSize;
+            // 文件不够长时按区段扩展，扩展出来的页读出来就是空页，不用再单独写一次；
+            // 压缩表没写过的页本来就读成空页
+            if (this.compressed == null) {
+                this.pageFile.ensureSize((long) (newPageNo + 1) * pageSize, (long) this.extentPages * pageSize, 0, pageSize);
+            }
+            heapPageId = new HeapPageId(getId(), newPageNo);
+            this.numPages.incrementAndGet();
         }
+        // Through buffer pool to get newPage
+        // 这一步会先从缓存中拿，再从文件中拿，所以一定能拿到，并且会加入到缓存中
+        final TuplePage newPage = (TuplePage) bufferPool.getPage(tid, heapPageId, Permissions.READ_WRITE);
+        // 将这条记录写入内存页，并标记为脏页
+        newPage.insertTuple(t);
+        this.freeSpaceMap.update(heapPageId.getPageNumber(), newPage.getNumEmptySlots());
+        this.zoneMap.insert(newPage, t);
+        newPage.markDirty(true, tid);
+        dirtyPageList.add(newPage);
         return dirtyPageList;
     }
 
@@ -168,16 +492,145 @@ public class HeapFile implements DbFile {
         final RecordId recordId = t.getRecordId();
         final PageId pageId = recordId.getPageId();
         // 获取所在的页
-        final HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        final TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
         // 在该页上删除该记录
         if (page != null && page.isSlotUsed(recordId.getTupleNumber())) {
             page.deleteTuple(t);
+            this.freeSpaceMap.update(pageId.getPageNumber(), page.getNumEmptySlots());
+            this.zoneMap.recompute(page);
             // 标记脏页，准备刷脏
             dirtyPageList.add(page);
         }
         return dirtyPageList;
     }
 
+    /**
+     * Move the live tuples of the last page into free slots of earlier pages,
+     * as part of transaction tid, under the normal page locks. Moved tuples
+     * get new RecordIds. Inserts stop choosing the last page.
+     * <p>
+     * If the tuples do not all fit in earlier pages, this returns false with
+     * some of them moved already; the caller aborts tid to put them back, so
+     * a page is emptied entirely or not at all.
+     *
+     * @return true if the last page is now empty; false if not all of its
+     * tuples fit, or the file has only one page
+     * @see simpledb.execution.Vacuum
+     */
+    public boolean moveLastPage(TransactionId tid) throws DbException, TransactionAbortedException {
+        final int last = numPages() - 1;
+        if (last < 1) {
+            return false;
+        }
+        final HeapPageId pid = new HeapPageId(getId(), last);
+        final TuplePage tail = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        // 改过的页原来的空闲槽数，挪不完时还原，空闲空间表不会跟着事务回滚
+        final Map<Integer, Integer> freeBefore = new HashMap<>();
+        freeBefore.put(last, this.freeSpaceMap.getFreeSlots(last));
+        // 插入不要再选中最后一页
+        this.freeSpaceMap.update(last, 0);
+        final List<Tuple> live = new ArrayList<>();
+        tail.iterator().forEachRemaining(live::add);
+        for (final Tuple t : live) {
+            final TuplePage target = findPageBefore(tid, last, t);
+            if (target == null) {
+                // 前面的页放不下了，由调用者回滚已经挪过去的行
+                freeBefore.forEach(this.freeSpaceMap::update);
+                return false;
+            }
+            freeBefore.putIfAbsent(target.getId().getPageNumber(), this.freeSpaceMap.getFreeSlots(target.getId().getPageNumber()));
+            final Tuple copy = new Tuple(this.td);
+            for (int i = 0; i < this.td.numFields(); i++) {
+                copy.setField(i, t.getField(i));
+            }
+            target.insertTuple(copy);
+            target.markDirty(true, tid);
+            this.freeSpaceMap.update(target.getId().getPageNumber(), target.getNumEmptySlots());
+            this.zoneMap.insert(target, copy);
+            tail.deleteTuple(t);
+            tail.markDirty(true, tid);
+        }
+        return true;
+    }
+
+    /**
+     * Cut the last page off the file if it is still empty, holding its write
+     * lock as part of transaction tid. Cutting is not undone if tid aborts,
+     * so call this only once the transaction that emptied the page has
+     * committed. The page is kept while a snapshot read begun before that
+     * commit is active: that snapshot still sees the tuples on the old
+     * version of the page.
+     *
+     * @param pageNo the page emptied by {@link #moveLastPage}
+     * @param moved  a commit timestamp not earlier than the commit of the move
+     * @return true if the page was cut off
+     * @see BufferPool#getLastCommitTimestamp()
+     */
+    public boolean cutLastPage(TransactionId tid, int pageNo, long moved)
+            throws DbException, IOException, TransactionAbortedException {
+        final BufferPool bufferPool = Database.getBufferPool();
+        final HeapPageId pid = new HeapPageId(getId(), pageNo);
+        final TuplePage tail = (TuplePage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+        synchronized (this) {
+            if (tail.iterator().hasNext() || this.numPages.get() != pageNo + 1) {
+                return false;
+            }
+            // 挪动之前开始的快照在旧版本的最后一页上还能看到这些行，不能截掉；
+            // 之后开始的快照时间戳都不小于moved，截掉也没关系
+            if (bufferPool.hasSnapshotBefore(moved)) {
+                return false;
+            }
+            bufferPool.discardPage(pid);
+            truncate(pageNo);
+        }
+        return true;
+    }
+
+    // 在前limit页中找一页放得下这一行的，拿到它的写锁；找不到返回null
+    private TuplePage findPageBefore(final TransactionId tid, final int limit, final Tuple t)
+            throws DbException, TransactionAbortedException {
+        final BufferPool bufferPool = Database.getBufferPool();
+        int pageNo;
+        while ((pageNo = this.freeSpaceMap.findPage(limit)) >= 0) {
+            final HeapPageId pid = new HeapPageId(getId(), pageNo);
+            final boolean held = bufferPool.holdsLock(tid, pid);
+            final TuplePage page = (TuplePage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.canInsert(t)) {
+                return page;
+            }
+            this.freeSpaceMap.update(pageNo, 0);
+            if (!held) {
+                bufferPool.unsafeReleasePage(tid, pid);
+            }
+        }
+        return null;
+    }
+
+    // 把文件截到前newNumPages页，预分配的页也一起还回去
+    private void truncate(final int newNumPages) throws IOException {
+        if (this.compressed != null) {
+            this.compressed.truncate(newNumPages);
+        } else {
+            this.pageFile.truncate((long) newNumPages * this.pageSize);
+        }
+        this.numPages.set(newNumPages);
+        this.freeSpaceMap.truncate(newNumPages);
+        this.zoneMap.truncate(newNumPages);
+        // 映射超出了文件末尾，访问会出错，重新映射
+        this.segments.clear();
+    }
+
+    /**
+     * Tell whether a page may hold tuples satisfying all the given predicates,
+     * going by the per-page minimum and maximum of each column only, see
+     * {@link ZoneMap}. Not meant for snapshot reads.
+     *
+     * @return false if the page surely holds none, true otherwise
+     */
+    public boolean mayMatch(int pageNo, List<Predicate> predicates) {
+        return predicates.isEmpty() || this.zoneMap.mayMatch(pageNo, predicates);
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -219,4 +221,89 @@ public class HeapFileEncoder {
         br.close();
         os.close();
     }
+
+    /** Convert the specified input text file into a binary page file with
+     * several threads and bounded memory, for inputs too large to convert
+     * one character at a time. The input and output are in the same format
+     * as for {@link #convert(File, File, int, int, Type[], char)}, except that
+     * a line with a malformed field is skipped.
+     *
+     * @see BulkLoader
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param typeAr the types of the fields of each input line
+     * @param fieldSeparator the character between fields of a line
+     * @param threads the number of threads parsing the input
+     * @param memoryBytes about how much memory the conversion may take
+     * @return the number of pages written
+     * @throws IOException if the input/output file can't be opened
+     */
+    public static int convert(File inFile, File outFile, int npagebytes, Type[] typeAr, char fieldSeparator,
+                              int threads, long memoryBytes) throws IOException {
+        return new BulkLoader(typeAr, fieldSeparator, threads, memoryBytes).loadHeapFile(inFile, outFile, npagebytes);
+    }
+
+    /** Convert the specified input text file into a binary page file whose
+     * pages store their tuples column by column, in the format of
+     * {@link PaxHeapPage}. The input is in the same format as for
+     * {@link #convert(File, File, int, int, Type[], char)}; a line with a
+     * malformed field is skipped.
+     *
+     * @see PaxHeapPage
+     * @see HeapPageFormat#PAX
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @param fieldSeparator the character between fields of a line
+     * @throws IOException if the input/output file can't be opened
+     */
+    public static void convertToPax(File inFile, File outFile, int npagebytes, int numFields, Type[] typeAr,
+                                    char fieldSeparator) throws IOException {
+        TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+        int nrecords = (npagebytes * 8) / (td.getSize() * 8 + 1);
+        int nheaderbytes = (nrecords + 7) / 8;
+        int[] columnStarts = PaxHeapPage.columnStarts(td, nheaderbytes, nrecords);
+
+        try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+             FileOutputStream os = new FileOutputStream(outFile)) {
+            ByteBuffer page = ByteBuffer.allocate(npagebytes);
+            int recordcount = 0;
+            int npages = 0;
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+                Field[] fields = new Field[numFields];
+                try {
+                    for (int i = 0; i < numFields; i++) {
+                        String s = values[i].trim();
+                        fields[i] = typeAr[i] == Type.INT_TYPE
+                                ? new IntField(Integer.parseInt(s))
+                                : new StringField(s, Type.STRING_LEN);
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    System.out.println("BAD LINE : " + line);
+                    continue;
+                }
+                // 每一列写到自己那一块里，再在bitmap里标记这一个槽
+                for (int i = 0; i < numFields; i++) {
+                    fields[i].serialize(page, columnStarts[i] + recordcount * typeAr[i].getLen());
+                }
+                page.put(recordcount / 8, (byte) (page.get(recordcount / 8) | (1 << (recordcount % 8))));
+                if (++recordcount == nrecords) {
+                    os.write(page.array());
+                    page = ByteBuffer.allocate(npagebytes);
+                    recordcount = 0;
+                    npages++;
+                }
+            }
+            // 最后一页不满也要写；文件是空的时候也写一个空页
+            if (recordcount > 0 || npages == 0)
+                os.write(page.array());
+        }
+    }
 }
@@ -4,8 +4,8 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
 import simpledb.transaction.TransactionId;
-import simpledb.util.IteratorWrapper;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.io.*;
 
@@ -17,22 +17,31 @@ import java.io.*;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     // 一个页的ID，包含这个页对应的表的ID，以及这个表的页总数
     final HeapPageId pid;
     // 这个页的表的结构
     final TupleDesc td;
-    // 维护的是一个bitmap
-    final byte[] header;
-    // 这个页存放的所有行
+    // 已经解码的行，按需从页的字节中解码
     final Tuple[] tuples;
+    // 页的字节数，由表决定
+    final int pageSize;
     // 槽的数量
     final int numSlots;
+    // bitmap的字节数
+    final int headerSize;
+    // 每一行的字节数
+    private final int tupleSize;
 
-    // 刷脏用的
-    byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    // 页的原始字节：开头是bitmap，后面是各个槽
+    private volatile ByteBuffer data;
+    // data被前像、getPageData的调用者或者延迟解码的行共享时为true，修改之前要先复制一份（写时复制）
+    private volatile boolean shared;
+
+    // 刷脏用的，最后一次提交时的字节，永远不会被修改
+    private ByteBuffer oldData;
+    private final Object oldDataLock = new Object();
 
     // 如果一个事务修改了这个页，记录这个事务的ID
     private TransactionId tid;
@@ -42,41 +51,45 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      * Specifically, the number of tuples is equal to: <p>
-     * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     * floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of the table, see {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
+     * The page wraps data without copying or parsing it. Tuples are decoded
+     * when they are first accessed, and data is copied only before the page
+     * is first modified, so the caller may keep using the array.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage over a page image held in a heap or direct buffer,
+     * from position 0 to the page size of the table. The bytes are never
+     * modified through this page.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) {
         this.pid = id;
         // 获取这个表的字段信息
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         // 获取这个页行的数量
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
-
+        this.headerSize = getHeaderSize();
+        this.tupleSize = this.td.getSize();
+        this.tuples = new Tuple[this.numSlots];
+        this.data = data;
+        this.shared = true;
         setBeforeImage();
     }
 
@@ -89,7 +102,7 @@ public class HeapPage implements Page {
         // some code goes here
         // 返回这个页一共存得下几行
         // 4096 * 8 / td.getSize() * 8 + 1
-        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return (this.pageSize * 8) / (td.getSize() * 8 + 1);
     }
 
     /**
@@ -108,23 +121,32 @@ public class HeapPage implements Page {
      * -- used by recovery
      */
     public HeapPage getBeforeImage() {
-        try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
+        ByteBuffer oldDataRef = null;
+        synchronized (oldDataLock) {
+            // 不在堆上的字节（比如文件的内存映射）会在这一页刷盘时被改掉，前像要复制一份
+            if (!oldData.hasArray()) {
+                final byte[] copy = new byte[this.pageSize];
+                copyTo(oldData, copy);
+                oldData = ByteBuffer.wrap(copy);
             }
-            return new HeapPage(pid, oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+            oldDataRef = oldData;
         }
-        return null;
+        // 前像和原来的页共享字节，不需要复制和解析
+        return newPage(oldDataRef);
+    }
+
+    /**
+     * Create a page of the same layout as this one over the given bytes.
+     */
+    HeapPage newPage(ByteBuffer data) {
+        return new HeapPage(this.pid, data);
     }
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            // 当前的字节从此和前像共享，下一次修改时再复制
+            this.shared = true;
+            oldData = this.data;
         }
     }
 
@@ -136,37 +158,50 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
+    // 第i个槽在页中的偏移
+    private int slotOffset(int i) {
+        return this.headerSize + i * this.tupleSize;
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Write the fields of the tuple into slot i of the page bytes.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    void writeSlot(ByteBuffer data, int i, Tuple t) {
+        int offset = slotOffset(i);
+        for (int j = 0; j < this.td.numFields(); j++) {
+            t.getField(j).serialize(data, offset);
+            offset += this.td.getFieldType(j).getLen();
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Zero the bytes of slot i of the page bytes.
+     */
+    void clearSlot(ByteBuffer data, int i) {
+        final int offset = slotOffset(i);
+        for (int j = 0; j < this.tupleSize; j++) {
+            data.put(offset + j, (byte) 0);
         }
+    }
 
-        return t;
+    /**
+     * Return the tuple in slot i, decoded from the page bytes as its fields
+     * are accessed.
+     */
+    Tuple readSlot(ByteBuffer data, int i) {
+        return new Tuple(this.td, data, slotOffset(i));
+    }
+
+    // 修改之前调用：字节被共享时先复制一份自己的
+    private void ensureWritable() {
+        if (!this.shared) {
+            return;
+        }
+        final int len = this.pageSize;
+        final byte[] copy = new byte[len];
+        copyTo(this.data, copy);
+        this.data = ByteBuffer.wrap(copy);
+        this.shared = false;
     }
 
     /**
@@ -176,69 +211,36 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * Returns the page's own bytes when they are a plain array; the page
+     * copies them before it is modified again, so the caller must not
+     * modify the returned array.
      *
      * @return A byte array correspond to the bytes of this page.
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+        final int len = this.pageSize;
+        final ByteBuffer buf = this.data;
+        if (buf.hasArray() && buf.arrayOffset() == 0 && buf.array().length == len) {
+            this.shared = true;
+            return buf.array();
         }
+        final byte[] bytes = new byte[len];
+        copyTo(buf, bytes);
+        return bytes;
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    @Override
+    public int getSize() {
+        return this.pageSize;
+    }
 
-        return baos.toByteArray();
+    // 复制页的字节，传入的字节比一页短时后面补0
+    private static void copyTo(final ByteBuffer buf, final byte[] dest) {
+        final ByteBuffer src = buf.duplicate();
+        src.position(0);
+        src.get(dest, 0, Math.min(dest.length, src.remaining()));
     }
 
     /**
@@ -255,6 +257,15 @@ public class HeapPage implements Page {
         return new byte[len]; //all 0
     }
 
+    /**
+     * Generate the bytes of an empty page of a table with the given page size.
+     *
+     * @see #createEmptyPageData()
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
     /**
      * Delete the specified tuple from the page; the corresponding header bit should be updated to reflect
      * that it is no longer stored on any page.
@@ -279,8 +290,10 @@ public class HeapPage implements Page {
         if (!isSlotUsed(tn)) {
             throw new DbException("Slot is not used");
         }
-        // 将这个槽标记为未使用
+        ensureWritable();
+        // 将这个槽标记为未使用，并清零
         markSlotUsed(tn, false);
+        clearSlot(this.data, tn);
         this.tuples[tn] = null;
     }
 
@@ -299,10 +312,17 @@ public class HeapPage implements Page {
         if (!t.getTupleDesc().equals(this.td)) {
             throw new DbException("Tuple desc is not match");
         }
-        // 遍历这个页，寻找已经不用的槽（行）
-        for (int i = 0; i < getNumTuples(); i++) {
+        // 遍历这个页，寻找已经不用的槽（行），bitmap全满的字节直接跳过
+        for (int i = 0; i < this.numSlots; i++) {
+            if ((i & 7) == 0 && this.data.get(i >> 3) == (byte) 0xFF) {
+                i += 7;
+                continue;
+            }
             // 如果找到一个已经不使用的槽
             if (!isSlotUsed(i)) {
+                ensureWritable();
+                // 把行写进槽里
+                writeSlot(this.data, i, t);
                 // 先将这个槽标记为已使用
                 markSlotUsed(i, true);
                 // 然后将这个槽分配给这个行
@@ -339,14 +359,12 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int emptyNum = 0;
-        for (int i = 0; i < getNumTuples(); i++) {
-            // 位运算，查询效率高
-            if (!isSlotUsed(i)) {
-                emptyNum++;
-            }
+        // 按字节数bitmap中1的个数
+        int usedNum = 0;
+        for (int i = 0; i < this.headerSize; i++) {
+            usedNum += Integer.bitCount(this.data.get(i) & 0xFF);
         }
-        return emptyNum;
+        return this.numSlots - usedNum;
     }
 
     /**
@@ -361,7 +379,7 @@ public class HeapPage implements Page {
         // 在字节中的第几个位置
         int posIndex = i % 8;
         // 拿到那一个字节
-        byte target = this.header[byteIndex];
+        byte target = this.data.get(byteIndex);
         //
         return (byte) (target << (7 - posIndex)) < 0;
     }
@@ -377,8 +395,8 @@ public class HeapPage implements Page {
         // 找到字节中的位置
         int posIndex = i % 8;
         byte v = (byte) (1 << posIndex);
-        byte headByte = this.header[byteIndex];
-        this.header[byteIndex] = value ? (byte) (headByte | v) : (byte) (headByte & ~v);
+        byte headByte = this.data.get(byteIndex);
+        this.data.put(byteIndex, value ? (byte) (headByte | v) : (byte) (headByte & ~v));
     }
 
     /**
@@ -387,6 +405,48 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        return new IteratorWrapper<>(this.tuples);
+        return new TupleIterator();
+    }
+
+    /**
+     * Return the tuple in slot i, decoding it on first access.
+     */
+    private Tuple getTuple(int i) {
+        Tuple t = this.tuples[i];
+        if (t == null) {
+            // 延迟解码的行引用页的字节，所以之后修改页之前要先复制
+            this.shared = true;
+            t = readSlot(this.data, i);
+            t.setRecordId(new RecordId(this.pid, i));
+            this.tuples[i] = t;
+        }
+        return t;
+    }
+
+    // 遍历所有使用中的槽，空槽直接跳过
+    private class TupleIterator implements Iterator<Tuple> {
+        private int next = advance(0);
+
+        private int advance(int i) {
+            while (i < numSlots && !isSlotUsed(i)) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next < numSlots;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Tuple t = getTuple(this.next);
+            this.next = advance(this.next + 1);
+            return t;
+        }
     }
 }
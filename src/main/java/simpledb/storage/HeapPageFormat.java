@@ -0,0 +1,57 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How a HeapFile lays out tuples on its pages. An empty page is all zeros in
+ * every format, and the format of a file cannot change once it holds data.
+ * 堆文件页的格式，空页在每种格式下都是全0
+ *
+ * @see HeapFile#HeapFile(java.io.File, TupleDesc, HeapPageFormat)
+ */
+public enum HeapPageFormat {
+    /**
+     * Fixed-size slots of {@link TupleDesc#getSize()} bytes; strings are
+     * padded to their maximum length.
+     * 定长槽，字符串补齐到最大长度
+     *
+     * @see HeapPage
+     */
+    FIXED {
+        @Override
+        public TuplePage createPage(HeapPageId pid, ByteBuffer data) {
+            return new HeapPage(pid, data);
+        }
+    },
+    /**
+     * A slot directory and variable-length records; strings take only the
+     * bytes they use.
+     * 槽目录加变长记录，字符串有多长就占多少
+     *
+     * @see SlottedHeapPage
+     */
+    SLOTTED {
+        @Override
+        public TuplePage createPage(HeapPageId pid, ByteBuffer data) {
+            return new SlottedHeapPage(pid, data);
+        }
+    },
+    /**
+     * Fixed-size slots like {@link #FIXED}, stored column by column within
+     * the page, for scans that read few columns of wide tables.
+     * 定长槽，页内按列存放
+     *
+     * @see PaxHeapPage
+     */
+    PAX {
+        @Override
+        public TuplePage createPage(HeapPageId pid, ByteBuffer data) {
+            return new PaxHeapPage(pid, data);
+        }
+    };
+
+    /**
+     * Create a page of this format over a page image, without copying it.
+     */
+    public abstract TuplePage createPage(HeapPageId pid, ByteBuffer data);
+}
@@ -0,0 +1,22 @@
+package simpledb.storage;
+
+/**
+ * How a DbFile reads its pages from disk.
+ * 表文件读页的方式
+ *
+ * @see DbFile#setIoMode(IoMode)
+ */
+public enum IoMode {
+    /**
+     * Read every page into a freshly allocated buffer.
+     * 每次缺页都读到新分配的数组里
+     */
+    BUFFERED,
+    /**
+     * Serve pages as slices of a memory mapping of the file, so the OS page
+     * cache acts as a second-level buffer pool and a miss copies nothing.
+     * Meant for tables that are rarely written.
+     * 用内存映射读页，缺页不复制，适合很少写的表
+     */
+    MMAP
+}
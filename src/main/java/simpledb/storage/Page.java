@@ -48,6 +48,14 @@ public interface Page {
 
     byte[] getPageData();
 
+    /**
+     * Returns the size of this page in bytes, the length of
+     * {@link #getPageData()}.
+     */
+    default int getSize() {
+        return BufferPool.getPageSize();
+    }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
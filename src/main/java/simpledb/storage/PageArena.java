@@ -0,0 +1,197 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * An off-heap cache of page images below the BufferPool.
+ * 堆外的二级缓存：缓冲池淘汰的干净页的字节复制到这里，缺页时先找这里再读盘
+ * <p>
+ * The arena is a spill cache, not the memory the pool's pages live in. It is
+ * a few large direct buffers, outside the garbage-collected heap, split into
+ * frames of a fixed size; a page takes as many frames as its size needs, so
+ * tables of any page size are cached. The BufferPool keeps its page objects
+ * on the heap as before, sized for the working set; pages it evicts while
+ * clean are copied into the arena, and a miss that finds its page here takes
+ * it back with a copy instead of a disk read. A page is either in the pool or
+ * in the arena, so the arena can be made as large as the machine's memory
+ * without growing the heap, except for the frame table.
+ * <p>
+ * Pages are not handed out as views over frames: an evicted page may still
+ * be read by an iterator that fetched it earlier, and must not see its frame
+ * reused. When the arena is full, the pages that have been in it longest are
+ * dropped until the new page fits. Direct memory is limited by
+ * -XX:MaxDirectMemorySize.
+ *
+ * @see BufferPool#setPageArena(PageArena)
+ */
+public class PageArena {
+
+    // 一块直接内存最多这么大
+    private static final int CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+
+    // 页id -> 页的字节所在的页框，按放进来的顺序，满了淘汰最早的
+    private final LinkedHashMap<PageId, Image> images;
+    // 被取走的页框，可以再用
+    private final int[] freeFrames;
+    private int numFree;
+    // 还没用过的页框从这里开始
+    private int nextUnused;
+
+    // 一页的长度和它占的页框，最后一个页框可能没用满
+    private static final class Image {
+        final int length;
+        final int[] frames;
+
+        Image(final int length, final int[] frames) {
+            this.length = length;
+            this.frames = frames;
+        }
+    }
+
+    /**
+     * Create an arena of about capacityBytes of direct memory, in frames of
+     * the current page size.
+     */
+    public PageArena(long capacityBytes) {
+        this(capacityBytes, BufferPool.getPageSize());
+    }
+
+    /**
+     * Create an arena of about capacityBytes of direct memory, in frames of
+     * frameSize bytes. A page larger than a frame takes several frames; a
+     * smaller one leaves the rest of its frame unused.
+     */
+    public PageArena(long capacityBytes, int frameSize) {
+        if (frameSize < 1) {
+            throw new IllegalArgumentException("Frame size must be positive: " + frameSize);
+        }
+        this.frameSize = frameSize;
+        final long frames = capacityBytes / this.frameSize;
+        if (frames < 1 || frames > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("An arena has from 1 to " + Integer.MAX_VALUE + " frames");
+        }
+        this.numFrames = (int) frames;
+        this.framesPerChunk = Math.max(1, CHUNK_BYTES / this.frameSize);
+        this.chunks = new ByteBuffer[(this.numFrames + this.framesPerChunk - 1) / this.framesPerChunk];
+        for (int i = 0; i < this.chunks.length; i++) {
+            final int chunkFrames = Math.min(this.framesPerChunk, this.numFrames - i * this.framesPerChunk);
+            this.chunks[i] = ByteBuffer.allocateDirect(chunkFrames * this.frameSize);
+        }
+        this.images = new LinkedHashMap<>();
+        this.freeFrames = new int[this.numFrames];
+    }
+
+    /**
+     * @return the number of page frames of the arena
+     */
+    public int getNumFrames() {
+        return this.numFrames;
+    }
+
+    /**
+     * @return the number of pages cached in the arena
+     */
+    public synchronized int size() {
+        return this.images.size();
+    }
+
+    /**
+     * @return true if the arena caches the page
+     */
+    public synchronized boolean contains(PageId pid) {
+        return this.images.containsKey(pid);
+    }
+
+    // 页框在它那一块直接内存里的视图，只包含前length个字节
+    private ByteBuffer frame(final int frame, final int length) {
+        final ByteBuffer buf = this.chunks[frame / this.framesPerChunk].duplicate();
+        final int pos = (frame % this.framesPerChunk) * this.frameSize;
+        buf.limit(pos + length);
+        buf.position(pos);
+        return buf;
+    }
+
+    // 页的第k个页框里存了多少字节
+    private int partLength(final Image image, final int k) {
+        return Math.min(this.frameSize, image.length - k * this.frameSize);
+    }
+
+    private void release(final Image image) {
+        for (final int frame : image.frames) {
+            this.freeFrames[this.numFree++] = frame;
+        }
+    }
+
+    /**
+     * Remove a page from the arena and return a copy of its bytes.
+     *
+     * @return the page image, or null if the arena does not cache the page
+     */
+    public synchronized byte[] take(PageId pid) {
+        final Image image = this.images.remove(pid);
+        if (image == null) {
+            return null;
+        }
+        final byte[] data = new byte[image.length];
+        for (int k = 0; k < image.frames.length; k++) {
+            frame(image.frames[k], partLength(image, k)).get(data, k * this.frameSize, partLength(image, k));
+        }
+        release(image);
+        return data;
+    }
+
+    /**
+     * Copy a page image into the arena, replacing any older image of the same
+     * page, and dropping the oldest pages until it fits if the arena is full.
+     * The image must be the page as it is on disk. A page larger than the
+     * whole arena is not kept.
+     */
+    public synchronized void put(PageId pid, byte[] data) {
+        final Image old = this.images.remove(pid);
+        if (old != null) {
+            release(old);
+        }
+        final int needed = Math.max(1, (data.length + this.frameSize - 1) / this.frameSize);
+        if (needed > this.numFrames) {
+            return;
+        }
+        // 空闲的页框不够就淘汰最早放进来的页
+        final Iterator<Image> oldest = this.images.values().iterator();
+        while (this.numFree + (this.numFrames - this.nextUnused) < needed) {
+            release(oldest.next());
+            oldest.remove();
+        }
+        final Image image = new Image(data.length, new int[needed]);
+        for (int k = 0; k < needed; k++) {
+            image.frames[k] = this.numFree > 0 ? this.freeFrames[--this.numFree] : this.nextUnused++;
+            frame(image.frames[k], partLength(image, k)).put(data, k * this.frameSize, partLength(image, k));
+        }
+        this.images.put(pid, image);
+    }
+
+    /**
+     * Drop the image of a page, because the page changed on disk by other means.
+     */
+    public synchronized void remove(PageId pid) {
+        final Image image = this.images.remove(pid);
+        if (image != null) {
+            release(image);
+        }
+    }
+
+    /**
+     * Drop all pages.
+     */
+    public synchronized void clear() {
+        this.images.clear();
+        this.numFree = 0;
+        this.nextUnused = 0;
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb.storage;
+
+/**
+ * Background writer that cleans committed pages of a BufferPool.
+ * 后台刷脏线程：把已提交但还没写回磁盘的页提前写回去，前台淘汰时就不用自己写盘
+ * <p>
+ * When the pool does not force pages at commit (see
+ * {@link BufferPool#setForceAtCommit}), committed changes stay in the pool
+ * until they are written back. The cleaner wakes up periodically and writes
+ * such pages, the ones nearest the eviction end of the replacement policy
+ * first, so that eviction nearly always finds a victim that is already clean
+ * on disk. Pages still dirty by a running transaction are never written
+ * (NO STEAL); for a page that a transaction has modified again, the last
+ * committed image is written instead.
+ * <p>
+ * The amount of work follows two watermarks, as fractions of the pool size.
+ * Below the low watermark the cleaner stays idle. Between the two it trickles
+ * pages out at no more than maxWritesPerSecond. Above the high watermark it
+ * writes without a rate limit until the low watermark is reached again; the
+ * pool also wakes it up right away when the high watermark is crossed.
+ */
+public class PageCleaner implements Runnable {
+
+    /**
+     * How often the cleaner checks the pool, in milliseconds.
+     */
+    public static final long INTERVAL_MILLIS = 100;
+
+    private final BufferPool bufferPool;
+    private final double lowWatermark;
+    private final double highWatermark;
+    private final int maxWritesPerSecond;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param bufferPool         the pool to clean
+     * @param lowWatermark       fraction of the pool's pages allowed to stay unwritten
+     * @param highWatermark      fraction of the pool's pages above which the rate limit is lifted
+     * @param maxWritesPerSecond rate limit of writes between the watermarks
+     */
+    public PageCleaner(BufferPool bufferPool, double lowWatermark, double highWatermark, int maxWritesPerSecond) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > 1) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low <= high <= 1");
+        }
+        if (maxWritesPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate limit must be positive");
+        }
+        this.bufferPool = bufferPool;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.maxWritesPerSecond = maxWritesPerSecond;
+    }
+
+    /**
+     * Start the cleaner on its own daemon thread.
+     */
+    public synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+        this.running = true;
+        this.thread = new Thread(this, "simpledb-page-cleaner");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stop the cleaner and wait for it to finish the page it is writing.
+     */
+    public void shutdown() {
+        final Thread t;
+        synchronized (this) {
+            this.running = false;
+            t = this.thread;
+            this.thread = null;
+            notifyAll();
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wake the cleaner up before its next round, e.g. because the high
+     * watermark has been crossed.
+     */
+    public synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * @return the number of unwritten pages above which the rate limit is lifted
+     */
+    int getHighWatermarkPages() {
+        return (int) (this.highWatermark * this.bufferPool.getNumPages());
+    }
+
+    @Override
+    public void run() {
+        // 每一轮限速时最多写的页数
+        final int budget = (int) Math.max(1, this.maxWritesPerSecond * INTERVAL_MILLIS / 1000);
+        while (this.running) {
+            final int low = (int) (this.lowWatermark * this.bufferPool.getNumPages());
+            int unwritten = this.bufferPool.getUnwrittenCount();
+            if (unwritten > getHighWatermarkPages()) {
+                // 超过高水位：不限速，一直写到低水位
+                while (this.running && unwritten > low) {
+                    if (this.bufferPool.cleanPages(Math.min(budget, unwritten - low)) == 0) {
+                        break;
+                    }
+                    unwritten = this.bufferPool.getUnwrittenCount();
+                }
+            } else if (unwritten > low) {
+                this.bufferPool.cleanPages(Math.min(budget, unwritten - low));
+            }
+            synchronized (this) {
+                if (this.running) {
+                    try {
+                        wait(INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * Compresses pages of a compressed HeapFile on their way to disk and back.
+ * 压缩表的页编解码器，可以换成别的实现
+ *
+ * @see HeapFile#HeapFile(java.io.File, TupleDesc, HeapPageFormat, PageCodec)
+ * @see DeflatePageCodec
+ */
+public interface PageCodec {
+
+    /**
+     * Compress a page image.
+     *
+     * @param page the page image, one page of the file
+     * @return the compressed bytes
+     */
+    byte[] compress(byte[] page);
+
+    /**
+     * Decompress length bytes of src into page, which must end up holding
+     * the whole page image given to {@link #compress}.
+     *
+     * @throws IOException if the bytes are not a page compressed by this codec
+     */
+    void decompress(byte[] src, int length, byte[] page) throws IOException;
+}
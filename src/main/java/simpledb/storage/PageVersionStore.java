@@ -0,0 +1,207 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageVersionStore keeps old committed versions of pages for snapshot reads.
+ * 多版本存储：保存页面被覆盖掉的已提交版本，快照读不加锁，按快照时间戳找到可见的版本
+ * <p>
+ * Every commit gets a timestamp from a logical clock. When a commit
+ * overwrites a page while snapshots are active, the page's previous committed
+ * image is kept as a version valid from the previous commit of that page up
+ * to this commit. A snapshot taken at time S sees the version whose interval
+ * contains S, or else the page's current committed image, i.e. its before
+ * image.
+ * <p>
+ * Commits publish under this object's monitor and bump a sequence counter
+ * before and after (a seqlock). Readers never lock: they retry when the
+ * counter was odd or changed while they looked a page up. Versions no
+ * active snapshot can see are dropped whenever a snapshot ends.
+ */
+public class PageVersionStore {
+
+    // 一个旧版本，对快照时间戳在[start, end)之间的事务可见
+    private static class PageVersion {
+        final long start;
+        final long end;
+        final Page image;
+
+        PageVersion(final long start, final long end, final Page image) {
+            this.start = start;
+            this.end = end;
+            this.image = image;
+        }
+    }
+
+    // 最后一次提交的时间戳
+    private volatile long lastCommitted;
+    // 提交进行中时为奇数
+    private final AtomicLong commitSeq;
+    // 页 -> 最后一次提交它的时间戳，只在有活跃快照时记录
+    private final Map<PageId, Long> pageCommitTs;
+    // 页 -> 旧版本链
+    private final Map<PageId, List<PageVersion>> versions;
+    // 活跃的快照：事务 -> 快照时间戳
+    private final Map<TransactionId, Long> snapshots;
+
+    public PageVersionStore() {
+        this.lastCommitted = 0L;
+        this.commitSeq = new AtomicLong(0L);
+        this.pageCommitTs = new ConcurrentHashMap<>();
+        this.versions = new ConcurrentHashMap<>();
+        this.snapshots = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Start a snapshot for the transaction at the last committed timestamp.
+     *
+     * @return the snapshot timestamp
+     */
+    public synchronized long beginSnapshot(final TransactionId tid) {
+        final long snapshot = this.lastCommitted;
+        this.snapshots.put(tid, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * @return the snapshot timestamp of the transaction, or null if it reads with locks
+     */
+    public Long getSnapshot(final TransactionId tid) {
+        return this.snapshots.get(tid);
+    }
+
+    /**
+     * End the snapshot of the transaction and drop versions nobody can see anymore.
+     */
+    public synchronized void endSnapshot(final TransactionId tid) {
+        if (this.snapshots.remove(tid) != null) {
+            collectGarbage();
+        }
+    }
+
+    public boolean hasSnapshots() {
+        return !this.snapshots.isEmpty();
+    }
+
+    /**
+     * @return the timestamp of the last published commit
+     */
+    public long getLastCommitted() {
+        return this.lastCommitted;
+    }
+
+    /**
+     * @return true if an active snapshot was taken before the commit at ts,
+     * and so does not see it
+     */
+    public boolean hasSnapshotBefore(final long ts) {
+        for (final long snapshot : this.snapshots.values()) {
+            if (snapshot < ts) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Start publishing a commit. Must be called while holding this object's
+     * monitor, followed by {@link #retire} for every page and {@link #endCommit}.
+     *
+     * @return the timestamp of the commit
+     */
+    long beginCommit() {
+        this.commitSeq.incrementAndGet();
+        return this.lastCommitted + 1;
+    }
+
+    /**
+     * Keep the committed image a commit at ts is about to overwrite, if an
+     * active snapshot may still need it.
+     */
+    void retire(final PageId pid, final Page committedImage, final long ts) {
+        if (this.snapshots.isEmpty()) {
+            return;
+        }
+        final Long start = this.pageCommitTs.get(pid);
+        this.versions.computeIfAbsent(pid, p -> new ArrayList<>()).add(new PageVersion(start == null ? 0L : start, ts, committedImage));
+        this.pageCommitTs.put(pid, ts);
+    }
+
+    void endCommit(final long ts) {
+        this.lastCommitted = ts;
+        this.commitSeq.incrementAndGet();
+    }
+
+    /**
+     * Start an optimistic lookup: waits until no commit is being published.
+     *
+     * @return the sequence to pass to {@link #validate}
+     */
+    long readBegin() {
+        long seq;
+        while (((seq = this.commitSeq.get()) & 1L) == 1L) {
+            Thread.yield();
+        }
+        return seq;
+    }
+
+    /**
+     * @return true if no commit was published since {@link #readBegin} returned seq
+     */
+    boolean validate(final long seq) {
+        return this.commitSeq.get() == seq;
+    }
+
+    /**
+     * Find the old version of a page visible to a snapshot.
+     *
+     * @return the visible version, or null if the current committed image is visible
+     */
+    Page findVersion(final PageId pid, final long snapshot) {
+        final List<PageVersion> chain = this.versions.get(pid);
+        if (chain == null) {
+            return null;
+        }
+        synchronized (chain) {
+            for (final PageVersion version : chain) {
+                if (version.start <= snapshot && snapshot < version.end) {
+                    return version.image;
+                }
+            }
+        }
+        return null;
+    }
+
+    // 回收旧版本：结束时间不晚于最老快照的版本不会再被任何快照看到
+    private void collectGarbage() {
+        if (this.snapshots.isEmpty()) {
+            this.versions.clear();
+            this.pageCommitTs.clear();
+            return;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (final long snapshot : this.snapshots.values()) {
+            oldest = Math.min(oldest, snapshot);
+        }
+        final Iterator<Map.Entry<PageId, List<PageVersion>>> it = this.versions.entrySet().iterator();
+        while (it.hasNext()) {
+            final List<PageVersion> chain = it.next().getValue();
+            synchronized (chain) {
+                final long minSnapshot = oldest;
+                chain.removeIf(version -> version.end <= minSnapshot);
+                if (chain.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        final long minSnapshot = oldest;
+        this.pageCommitTs.values().removeIf(ts -> ts <= minSnapshot);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapPage that stores its tuples column by column (PAX): after the header
+ * bitmap, each column has a minipage holding that column of every slot.
+ * 按列存放的页：bitmap后面每一列一块，放着所有槽的这一列
+ * <p>
+ * The page holds as many slots as a HeapPage of the same table. A scan that
+ * reads only a few columns of a wide table touches only their minipages,
+ * and tuples decode only the fields that are accessed.
+ *
+ * @see HeapPageFormat#PAX
+ */
+public class PaxHeapPage extends HeapPage {
+
+    // 每一列在页中的起点
+    private final int[] columnStarts;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxHeapPage over a page image held in a heap or direct buffer.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxHeapPage(HeapPageId id, ByteBuffer data) {
+        super(id, data);
+        this.columnStarts = columnStarts(this.td, this.headerSize, this.numSlots);
+    }
+
+    /**
+     * Return the offset of each column in a page with the given header size
+     * and number of slots.
+     */
+    static int[] columnStarts(TupleDesc td, int headerSize, int numSlots) {
+        final int[] starts = new int[td.numFields()];
+        int offset = headerSize;
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = offset;
+            offset += numSlots * td.getFieldType(i).getLen();
+        }
+        return starts;
+    }
+
+    @Override
+    HeapPage newPage(ByteBuffer data) {
+        return new PaxHeapPage(this.pid, data);
+    }
+
+    @Override
+    void writeSlot(ByteBuffer data, int i, Tuple t) {
+        for (int j = 0; j < this.columnStarts.length; j++) {
+            t.getField(j).serialize(data, this.columnStarts[j] + i * this.td.getFieldType(j).getLen());
+        }
+    }
+
+    @Override
+    void clearSlot(ByteBuffer data, int i) {
+        for (int j = 0; j < this.columnStarts.length; j++) {
+            final int len = this.td.getFieldType(j).getLen();
+            final int offset = this.columnStarts[j] + i * len;
+            for (int k = 0; k < len; k++) {
+                data.put(offset + k, (byte) 0);
+            }
+        }
+    }
+
+    @Override
+    Tuple readSlot(ByteBuffer data, int i) {
+        return new Tuple(this.td, data, this.columnStarts, i);
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * The header of a side file that summarizes a HeapFile, such as its zone map
+ * or free-space map.
+ * 旁边文件的头：文件是什么，以及最后一次写它时数据文件有多长
+ * <p>
+ * The header holds a magic number saying what the side file is and the
+ * length the data file had when the side file was last written. A side file
+ * whose header does not match, because it is of an older format or the data
+ * file was rewritten or grown by other means since, does not describe the
+ * data file and is thrown away. Modification times are not used: they are
+ * too coarse to tell a rewrite within the same tick.
+ */
+final class SideFileHeader {
+
+    static final int SIZE = Integer.BYTES + Long.BYTES;
+
+    private SideFileHeader() {
+    }
+
+    /**
+     * @return true if the side file read into buf, positioned at its start,
+     * has the given magic number and was written for a data file of the
+     * length dataFile has now
+     */
+    static boolean matches(final ByteBuffer buf, final int magic, final File dataFile) {
+        return buf.remaining() >= SIZE && buf.getInt() == magic && buf.getLong() == dataFile.length();
+    }
+
+    /**
+     * Write the header for the current length of dataFile.
+     */
+    static void write(final RandomAccessFile out, final int magic, final File dataFile) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(SIZE);
+        buf.putInt(magic).putLong(dataFile.length());
+        out.seek(0);
+        out.write(buf.array());
+    }
+}
@@ -0,0 +1,536 @@
+package simpledb.storage;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a HeapFile that stores variable-length records behind a slot
+ * directory, so a string takes only the bytes it uses instead of
+ * {@link Type#STRING_LEN}.
+ * 槽页：页头后面是槽目录，记录从页尾往前放，字符串只占实际的长度
+ * <p>
+ * The page starts with a 4-byte header: the number of slots and the size of
+ * the record area. The slot directory follows, one 4-byte entry per slot
+ * holding the offset and length of its record, and grows towards the end of
+ * the page, while records are packed from the end of the page towards its
+ * start. A slot with offset 0 is empty. All these numbers are unsigned 16-bit,
+ * so a page is at most 64KB, and an all-zero page is an empty page.
+ * <p>
+ * In a record an int field takes 4 bytes, and a string field 2 bytes of
+ * length followed by its characters. Deleting a record leaves a hole; when an
+ * insert finds enough free space on the page but not in one piece, the
+ * records are first compacted towards the end of the page. An update that
+ * makes a record longer moves it within the page the same way. Slot numbers
+ * never change, so the RecordIds of the other tuples stay valid.
+ *
+ * @see HeapPageFormat#SLOTTED
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+    private static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // 页的字节数，由表决定
+    private final int pageSize;
+    // 已经解码的行，按槽号
+    private final Tuple[] tuples;
+    // 最短的记录的字节数
+    private final int minRecordSize;
+
+    // 页的原始字节
+    private volatile ByteBuffer data;
+    // data被前像或者getPageData的调用者共享时为true，修改之前要先复制一份（写时复制）
+    private volatile boolean shared;
+
+    // 刷脏用的，最后一次提交时的字节，永远不会被修改
+    private ByteBuffer oldData;
+    private final Object oldDataLock = new Object();
+
+    // 如果一个事务修改了这个页，记录这个事务的ID
+    private TransactionId tid;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk. The
+     * page wraps the array without copying it and copies it before it is
+     * first modified.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage over a page image held in a heap or direct
+     * buffer, from position 0 to the page size of the table. The bytes are
+     * never modified through this page.
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) {
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (this.pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalStateException("Slotted pages are at most " + MAX_PAGE_SIZE + " bytes");
+        }
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.minRecordSize = minRecordSize(this.td);
+        // 新的槽只在没有空槽时才加，所以槽数不会超过全是最短记录时的行数
+        this.tuples = new Tuple[(this.pageSize - HEADER_SIZE) / (SLOT_SIZE + this.minRecordSize)];
+        this.data = data;
+        this.shared = true;
+        setBeforeImage();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage of a table with the given page size.
+     *
+     * @see Catalog#getPageSize(int)
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    // 一条记录最少占的字节数：字符串都是空串
+    private static int minRecordSize(final TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 2 : td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    // 这一行的记录的字节数
+    private static int recordLength(final Tuple t) {
+        final TupleDesc td = t.getTupleDesc();
+        int len = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                len += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            } else {
+                len += td.getFieldType(i).getLen();
+            }
+        }
+        return len;
+    }
+
+    private void writeRecord(final Tuple t, final int offset) {
+        int pos = offset;
+        for (int i = 0; i < this.td.numFields(); i++) {
+            final Field f = t.getField(i);
+            if (this.td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                if (s.length() > Type.STRING_LEN) {
+                    s = s.substring(0, Type.STRING_LEN);
+                }
+                this.data.putChar(pos, (char) s.length());
+                pos += 2;
+                for (int j = 0; j < s.length(); j++) {
+                    this.data.put(pos++, (byte) s.charAt(j));
+                }
+            } else {
+                f.serialize(this.data, pos);
+                pos += this.td.getFieldType(i).getLen();
+            }
+        }
+    }
+
+    private Tuple readRecord(final int offset) {
+        final Tuple t = new Tuple(this.td);
+        int pos = offset;
+        for (int i = 0; i < this.td.numFields(); i++) {
+            final Type type = this.td.getFieldType(i);
+            if (type == Type.STRING_TYPE) {
+                final byte[] bs = new byte[this.data.getChar(pos)];
+                final ByteBuffer src = this.data.duplicate();
+                src.position(pos + 2);
+                src.get(bs);
+                t.setField(i, new StringField(new String(bs), Type.STRING_LEN));
+                pos += 2 + bs.length;
+            } else {
+                t.setField(i, type.parse(this.data, pos));
+                pos += type.getLen();
+            }
+        }
+        return t;
+    }
+
+    private int getNumSlots() {
+        return this.data.getChar(0);
+    }
+
+    // 记录区的开头，记录区一直到页尾
+    private int getDataStart() {
+        return this.pageSize - this.data.getChar(2);
+    }
+
+    private void setHeader(final int numSlots, final int dataStart) {
+        this.data.putChar(0, (char) numSlots);
+        this.data.putChar(2, (char) (this.pageSize - dataStart));
+    }
+
+    private int slotOffset(final int i) {
+        return this.data.getChar(HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    private int slotLength(final int i) {
+        return this.data.getChar(HEADER_SIZE + i * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(final int i, final int offset, final int length) {
+        this.data.putChar(HEADER_SIZE + i * SLOT_SIZE, (char) offset);
+        this.data.putChar(HEADER_SIZE + i * SLOT_SIZE + 2, (char) length);
+    }
+
+    // 第一个空槽，没有时返回-1
+    private int findFreeSlot() {
+        final int numSlots = getNumSlots();
+        for (int i = 0; i < numSlots; i++) {
+            if (slotOffset(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 槽目录和记录区之间连续的空闲字节
+    private int contiguousFree() {
+        return getDataStart() - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+    }
+
+    // 整理以后能得到的空闲字节：连续的空闲加上删除留下的空洞
+    private int totalFree() {
+        final int numSlots = getNumSlots();
+        int used = HEADER_SIZE + numSlots * SLOT_SIZE;
+        for (int i = 0; i < numSlots; i++) {
+            used += slotLength(i);
+        }
+        return this.pageSize - used;
+    }
+
+    // 修改之前调用：字节被共享时先复制一份自己的
+    private void ensureWritable() {
+        if (!this.shared) {
+            return;
+        }
+        final byte[] copy = new byte[this.pageSize];
+        copyTo(this.data, copy);
+        this.data = ByteBuffer.wrap(copy);
+        this.shared = false;
+    }
+
+    // 复制页的字节，传入的字节比一页短时后面补0
+    private static void copyTo(final ByteBuffer buf, final byte[] dest) {
+        final ByteBuffer src = buf.duplicate();
+        src.position(0);
+        src.get(dest, 0, Math.min(dest.length, src.remaining()));
+    }
+
+    // 把所有记录挪到页尾，删除留下的空洞合成一块连续的空闲空间；槽号不变
+    private void compact() {
+        final int pageSize = this.pageSize;
+        final byte[] old = new byte[pageSize];
+        copyTo(this.data, old);
+        final int numSlots = getNumSlots();
+        int end = pageSize;
+        for (int i = 0; i < numSlots; i++) {
+            final int offset = slotOffset(i);
+            if (offset == 0) {
+                continue;
+            }
+            final int length = slotLength(i);
+            end -= length;
+            final ByteBuffer dest = this.data.duplicate();
+            dest.position(end);
+            dest.put(old, offset, length);
+            setSlot(i, end, length);
+        }
+        for (int i = HEADER_SIZE + numSlots * SLOT_SIZE; i < end; i++) {
+            this.data.put(i, (byte) 0);
+        }
+        setHeader(numSlots, end);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedHeapPage getBeforeImage() {
+        ByteBuffer oldDataRef = null;
+        synchronized (oldDataLock) {
+            // 不在堆上的字节（比如文件的内存映射）会在这一页刷盘时被改掉，前像要复制一份
+            if (!oldData.hasArray()) {
+                final byte[] copy = new byte[this.pageSize];
+                copyTo(oldData, copy);
+                oldData = ByteBuffer.wrap(copy);
+            }
+            oldDataRef = oldData;
+        }
+        return new SlottedHeapPage(pid, oldDataRef);
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            this.shared = true;
+            oldData = this.data;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return this.pageSize;
+    }
+
+    /**
+     * Returns the page's own bytes when they are a plain array; the page
+     * copies them before it is modified again, so the caller must not modify
+     * the returned array.
+     *
+     * @see HeapPage#getPageData()
+     */
+    public byte[] getPageData() {
+        final int len = this.pageSize;
+        final ByteBuffer buf = this.data;
+        if (buf.hasArray() && buf.arrayOffset() == 0 && buf.array().length == len) {
+            this.shared = true;
+            return buf.array();
+        }
+        final byte[] bytes = new byte[len];
+        copyTo(buf, bytes);
+        return bytes;
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its space is reused by later
+     * inserts, after compaction if needed.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        final RecordId recordId = t.getRecordId();
+        final int tn = recordId.getTupleNumber();
+        if (!recordId.getPageId().equals(this.pid)) {
+            throw new DbException("Page id not match");
+        }
+        if (!isSlotUsed(tn)) {
+            throw new DbException("Slot is not used");
+        }
+        ensureWritable();
+        final int offset = slotOffset(tn);
+        final int length = slotLength(tn);
+        for (int i = 0; i < length; i++) {
+            this.data.put(offset + i, (byte) 0);
+        }
+        setSlot(tn, 0, 0);
+        int numSlots = getNumSlots();
+        int dataStart = getDataStart();
+        // 记录正好在记录区开头时，记录区直接缩小
+        if (offset == dataStart) {
+            dataStart += length;
+        }
+        // 末尾的空槽不用留着
+        while (numSlots > 0 && slotOffset(numSlots - 1) == 0) {
+            numSlots--;
+        }
+        if (numSlots == 0) {
+            dataStart = this.pageSize;
+        }
+        setHeader(numSlots, dataStart);
+        this.tuples[tn] = null;
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or a new
+     * one; the tuple should be updated to reflect that it is now stored on
+     * this page.
+     *
+     * @throws DbException if the tuple does not fit or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("Tuple desc is not match");
+        }
+        final int length = recordLength(t);
+        int slot = findFreeSlot();
+        final int needed = length + (slot < 0 ? SLOT_SIZE : 0);
+        if (totalFree() < needed) {
+            throw new DbException("The page is full");
+        }
+        ensureWritable();
+        if (contiguousFree() < needed) {
+            compact();
+        }
+        final int numSlots = getNumSlots();
+        if (slot < 0) {
+            slot = numSlots;
+        }
+        final int offset = getDataStart() - length;
+        writeRecord(t, offset);
+        setSlot(slot, offset, length);
+        setHeader(Math.max(numSlots, slot + 1), offset);
+        t.setRecordId(new RecordId(this.pid, slot));
+        this.tuples[slot] = t;
+    }
+
+    /**
+     * Replace the record of the tuple at t's RecordId with the fields of t,
+     * keeping its slot. A record that grows is moved within the page, after
+     * compacting the page if needed.
+     *
+     * @throws DbException if t is not on this page, its tupledesc does not
+     *                     match, or the longer record does not fit on the
+     *                     page; then the page is unchanged, and the caller
+     *                     has to delete the tuple and insert it on another
+     *                     page
+     */
+    public void updateTuple(Tuple t) throws DbException {
+        final RecordId recordId = t.getRecordId();
+        if (recordId == null || !recordId.getPageId().equals(this.pid)) {
+            throw new DbException("Page id not match");
+        }
+        final int tn = recordId.getTupleNumber();
+        if (!isSlotUsed(tn)) {
+            throw new DbException("Slot is not used");
+        }
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("Tuple desc is not match");
+        }
+        final int length = recordLength(t);
+        final int oldOffset = slotOffset(tn);
+        final int oldLength = slotLength(tn);
+        if (length > oldLength && totalFree() + oldLength < length) {
+            throw new DbException("The record does not fit on the page");
+        }
+        ensureWritable();
+        if (length <= oldLength) {
+            // 变短或者一样长：原地覆盖，剩下的字节成为空洞
+            writeRecord(t, oldOffset);
+            for (int i = oldOffset + length; i < oldOffset + oldLength; i++) {
+                this.data.put(i, (byte) 0);
+            }
+            setSlot(tn, oldOffset, length);
+        } else {
+            // 变长：先腾出旧记录，再像插入一样从记录区开头往前放，槽号不变
+            for (int i = oldOffset; i < oldOffset + oldLength; i++) {
+                this.data.put(i, (byte) 0);
+            }
+            setSlot(tn, 0, 0);
+            if (contiguousFree() < length) {
+                compact();
+            }
+            final int offset = getDataStart() - length;
+            writeRecord(t, offset);
+            setSlot(tn, offset, length);
+            setHeader(getNumSlots(), offset);
+        }
+        this.tuples[tn] = t;
+    }
+
+    @Override
+    public boolean canInsert(Tuple t) {
+        return t.getTupleDesc().equals(this.td)
+                && totalFree() >= recordLength(t) + (findFreeSlot() < 0 ? SLOT_SIZE : 0);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.tid;
+    }
+
+    /**
+     * Returns how many more tuples of the shortest possible size fit on this
+     * page. Longer tuples may not fit; see {@link #canInsert(Tuple)}.
+     */
+    public int getNumEmptySlots() {
+        int free = totalFree();
+        int emptySlots = 0;
+        final int numSlots = getNumSlots();
+        for (int i = 0; i < numSlots; i++) {
+            if (slotOffset(i) == 0) {
+                emptySlots++;
+            }
+        }
+        // 空槽可以直接用，不用再占槽目录
+        final int reused = Math.min(emptySlots, free / this.minRecordSize);
+        free -= reused * this.minRecordSize;
+        return reused + free / (SLOT_SIZE + this.minRecordSize);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && slotOffset(i) != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new TupleIterator();
+    }
+
+    // 第i个槽的行，第一次访问时解码
+    private Tuple getTuple(int i) {
+        Tuple t = this.tuples[i];
+        if (t == null) {
+            t = readRecord(slotOffset(i));
+            t.setRecordId(new RecordId(this.pid, i));
+            this.tuples[i] = t;
+        }
+        return t;
+    }
+
+    // 遍历所有使用中的槽，空槽直接跳过
+    private class TupleIterator implements Iterator<Tuple> {
+        private final int numSlots = getNumSlots();
+        private int next = advance(0);
+
+        private int advance(int i) {
+            while (i < this.numSlots && slotOffset(i) == 0) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next < this.numSlots;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Tuple t = getTuple(this.next);
+            this.next = advance(this.next + 1);
+            return t;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.common.Type;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -68,6 +69,25 @@ public class StringField implements Field {
             dos.write((byte) 0);
     }
 
+    /**
+     * Write this string into buf at offset, in the same maxSize + 4 bytes
+     * format as {@link #serialize(DataOutputStream)}.
+     */
+    public void serialize(ByteBuffer buf, int offset) {
+        String s = value;
+        if (s.length() > maxSize) {
+            s = s.substring(0, maxSize);
+        }
+        buf.putInt(offset, s.length());
+        int pos = offset + 4;
+        for (int i = 0; i < s.length(); i++) {
+            buf.put(pos++, (byte) s.charAt(i));
+        }
+        for (int i = s.length(); i < maxSize; i++) {
+            buf.put(pos++, (byte) 0);
+        }
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
@@ -1,8 +1,12 @@
 package simpledb.storage;
 
+import simpledb.common.Type;
 import simpledb.util.IteratorWrapper;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -22,6 +26,12 @@ public class Tuple implements Serializable {
     private Field[] fields;
     // 描述了这个行在哪个页中以及在页中的哪个位置
     private RecordId recordId;
+    // 延迟解码：行还在页的字节里，字段第一次被访问时才解析出来
+    private transient ByteBuffer source;
+    // 这一行在source中的偏移；按列存放时是这一行在每一列中的序号
+    private int offset;
+    // 按列存放时每一列在source中的起点
+    private transient int[] columnStarts;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -35,6 +45,44 @@ public class Tuple implements Serializable {
         this.fields = new Field[this.tupleDesc.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded from its serialized form in
+     * source the first time they are accessed. The bytes must not change
+     * while the tuple is in use. Bytes outside the Java heap, such as a
+     * memory-mapped page, change in place when the page is written back, so
+     * a tuple over them decodes all fields at once and keeps no reference.
+     *
+     * @param td     the schema of this tuple
+     * @param source the bytes holding the tuple
+     * @param offset the absolute offset of the tuple in source
+     */
+    Tuple(TupleDesc td, ByteBuffer source, int offset) {
+        this(td, source, null, offset);
+    }
+
+    /**
+     * Create a tuple stored column by column in source: field i is the
+     * index-th value of the column starting at columnStarts[i]. Fields are
+     * decoded the first time they are accessed, so a scan touching few
+     * columns reads only their bytes.
+     *
+     * @param td           the schema of this tuple
+     * @param source       the bytes holding the columns
+     * @param columnStarts the absolute offset of each column in source, or
+     *                     null if the tuple is stored as one row at index
+     * @param index        the position of the tuple in the columns
+     */
+    Tuple(TupleDesc td, ByteBuffer source, int[] columnStarts, int index) {
+        this(td);
+        this.source = source;
+        this.offset = index;
+        this.columnStarts = columnStarts;
+        // 映射的字节写回页时会被原地改掉，不能留到以后再解析
+        if (!source.hasArray()) {
+            decodeAll();
+        }
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -85,7 +133,42 @@ public class Tuple implements Serializable {
         if (i >= this.tupleDesc.numFields()) {
             return null;
         }
-        return this.fields[i];
+        Field field = this.fields[i];
+        if (field == null && this.source != null) {
+            field = decodeField(i);
+            this.fields[i] = field;
+        }
+        return field;
+    }
+
+    // 跳过前面的字段，解析第i个字段
+    private Field decodeField(int i) {
+        if (this.columnStarts != null) {
+            final Type type = this.tupleDesc.getFieldType(i);
+            return type.parse(this.source, this.columnStarts[i] + this.offset * type.getLen());
+        }
+        int fieldOffset = this.offset;
+        for (int j = 0; j < i; j++) {
+            fieldOffset += this.tupleDesc.getFieldType(j).getLen();
+        }
+        return this.tupleDesc.getFieldType(i).parse(this.source, fieldOffset);
+    }
+
+    // 解析所有还没解析的字段，之后不再引用页的字节
+    private void decodeAll() {
+        if (this.source == null) {
+            return;
+        }
+        for (int i = 0; i < this.fields.length; i++) {
+            getField(i);
+        }
+        this.source = null;
+        this.columnStarts = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -98,6 +181,7 @@ public class Tuple implements Serializable {
      */
     @Override
     public String toString() {
+        decodeAll();
         return "Tuple{\n" + "tupleDesc=" + tupleDesc + ", \nfields=" + Arrays.toString(fields) + ", \nrecordId="
                 + recordId + "\n}\n";
     }
@@ -107,7 +191,7 @@ public class Tuple implements Serializable {
      */
     public Iterator<Field> fields() {
         // some code goes here
-
+        decodeAll();
         return new IteratorWrapper<>(this.fields);
     }
 
@@ -116,6 +200,7 @@ public class Tuple implements Serializable {
      */
     public void resetTupleDesc(TupleDesc td) {
         // some code goes here
+        decodeAll();
         this.tupleDesc = td;
     }
 }
@@ -0,0 +1,53 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.Iterator;
+
+/**
+ * A page of a HeapFile: holds tuples in numbered slots, whatever the layout
+ * of the page on disk.
+ * 堆文件的页，不管页在磁盘上怎么排布，行都放在编号的槽里
+ *
+ * @see HeapPageFormat
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException if the tuple does not fit or its tupledesc does not match
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is already empty
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns the number of tuples that can still be added to this page. For
+     * pages with variable-length records this is an estimate.
+     */
+    int getNumEmptySlots();
+
+    /**
+     * Returns true if the tuple can be added to this page.
+     */
+    default boolean canInsert(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    boolean isSlotUsed(int i);
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    Iterator<Tuple> iterator();
+}
@@ -0,0 +1,335 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * ZoneMap keeps, for each page of a HeapFile, the smallest and largest value
+ * of every column on the page, so that a scan with a range predicate can
+ * skip the pages none of whose tuples can match.
+ * 区域映射：每页每列记下最小值和最大值，范围查询时整页跳过不可能满足条件的页
+ * <p>
+ * A value is summarized by a long key that orders like the field: an int is
+ * its own key, a string the first four characters of its value, so string
+ * ranges are only compared on that prefix. The summary of a page covers
+ * every version of it a locking reader may still see: an insert widens it,
+ * and a delete, done under the write lock of the page, recomputes it from
+ * the page together with its before image, so it stays right whether the
+ * deleting transaction commits or aborts; the range narrows for good when
+ * the committed page is written. Pages never looked at, and those
+ * whose summary was lost, are unknown and always read. Snapshot reads may
+ * see versions older than the before image and must not use the map.
+ * <p>
+ * The map is persisted to a side file next to the heap file, a fixed-size
+ * entry per page, whenever the page is written. The file starts with a
+ * {@link SideFileHeader}, and each entry holds the CRC32 of the page image it
+ * was written with. When the map is opened, an entry whose page on disk has
+ * another checksum is unknown again, so a page written without its entry,
+ * by a crash or by other means, is never skipped on a stale range.
+ */
+public class ZoneMap {
+
+    // 这一页的摘要还不知道
+    private static final byte UNKNOWN = 0;
+    private static final byte KNOWN = 1;
+    // 字符串的前缀取几个字符，一个字符16位，正好放进一个long
+    private static final int PREFIX_CHARS = 4;
+    private static final int MAGIC = 0x5A4D4150;
+
+    private final File file;
+    private final TupleDesc td;
+    private final int numFields;
+    // 数据文件
+    private final File dataFile;
+    // 每页一个条目：标志 + 页的校验和 + 每列的最小键和最大键
+    private final int entrySize;
+    // 页号 -> [最小键, 最大键, ...]，null表示不知道；空页的最小键大于最大键
+    private long[][] entries;
+    private RandomAccessFile out;
+
+    /**
+     * Open the zone map of dataFile stored in the given file, or start one
+     * where every page is unknown if the file does not exist. A map whose
+     * header does not match the data file, or not made for this schema, is
+     * thrown away, and an entry is only kept if its page, as given by
+     * pageImages, still has the checksum it was written with.
+     *
+     * @param pageImages the image on disk of a page by its number, or null
+     *                   if it cannot be read
+     */
+    public ZoneMap(File file, File dataFile, TupleDesc td, IntFunction<byte[]> pageImages) {
+        this.file = file;
+        this.dataFile = dataFile;
+        this.td = td;
+        this.numFields = td.numFields();
+        this.entrySize = 1 + Integer.BYTES + 2 * Long.BYTES * this.numFields;
+        long[][] entries = new long[0][];
+        if (file.exists()) {
+            try {
+                final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+                if (!SideFileHeader.matches(buf, MAGIC, dataFile) || buf.remaining() % this.entrySize != 0) {
+                    file.delete();
+                } else {
+                    entries = new long[buf.remaining() / this.entrySize][];
+                    for (int i = 0; i < entries.length; i++) {
+                        final int start = SideFileHeader.SIZE + i * this.entrySize;
+                        if (buf.get(start) == KNOWN && buf.getInt(start + 1) == checksum(pageImages.apply(i))) {
+                            entries[i] = new long[2 * this.numFields];
+                            for (int j = 0; j < entries[i].length; j++) {
+                                entries[i][j] = buf.getLong(start + 1 + Integer.BYTES + j * Long.BYTES);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // 读不出来就当作所有页都不知道
+                e.printStackTrace();
+                entries = new long[0][];
+            }
+        }
+        this.entries = entries;
+    }
+
+    // 页的校验和，读不出来的页和任何条目都对不上
+    private static int checksum(final byte[] image) {
+        if (image == null) {
+            return 0;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(image);
+        // 0留给读不出来的页
+        return (int) crc.getValue() | 1;
+    }
+
+    /**
+     * @return the key of a field, ordered like the field: an int itself, a
+     * string its first characters
+     */
+    public static long key(Field field) {
+        if (field.getType() == Type.INT_TYPE) {
+            return ((IntField) field).getValue();
+        }
+        final String value = ((StringField) field).getValue();
+        long prefix = 0;
+        for (int i = 0; i < PREFIX_CHARS; i++) {
+            prefix = (prefix << 16) | (i < value.length() ? value.charAt(i) : 0);
+        }
+        // 翻转符号位，无符号的顺序变成有符号的顺序
+        return prefix ^ Long.MIN_VALUE;
+    }
+
+    private long[] emptyEntry() {
+        final long[] entry = new long[2 * this.numFields];
+        for (int i = 0; i < this.numFields; i++) {
+            entry[2 * i] = Long.MAX_VALUE;
+            entry[2 * i + 1] = Long.MIN_VALUE;
+        }
+        return entry;
+    }
+
+    private static void widen(final long[] entry, final Tuple t) {
+        for (int i = 0; i < entry.length / 2; i++) {
+            final long key = key(t.getField(i));
+            entry[2 * i] = Math.min(entry[2 * i], key);
+            entry[2 * i + 1] = Math.max(entry[2 * i + 1], key);
+        }
+    }
+
+    private static void widen(final long[] entry, final Iterator<Tuple> tuples) {
+        while (tuples.hasNext()) {
+            widen(entry, tuples.next());
+        }
+    }
+
+    private long[] entry(final int pageNo) {
+        return pageNo < this.entries.length ? this.entries[pageNo] : null;
+    }
+
+    private void setEntry(final int pageNo, final long[] entry) {
+        if (pageNo >= this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, Math.max(pageNo + 1, this.entries.length * 2));
+        }
+        this.entries[pageNo] = entry;
+    }
+
+    /**
+     * Record a tuple inserted into a page, which the caller holds the write
+     * lock of.
+     */
+    public synchronized void insert(TuplePage page, Tuple t) {
+        final int pageNo = page.getId().getPageNumber();
+        final long[] entry = entry(pageNo);
+        if (entry == null) {
+            // 还不知道这一页的摘要，从页上算出来
+            recompute(page);
+        } else {
+            widen(entry, t);
+        }
+    }
+
+    /**
+     * Recompute the summary of a page, which the caller holds the write lock
+     * of, from its current content and its before image, after tuples were
+     * deleted from it.
+     */
+    public synchronized void recompute(TuplePage page) {
+        final long[] entry = emptyEntry();
+        widen(entry, page.iterator());
+        final Page before = page.getBeforeImage();
+        if (before instanceof TuplePage) {
+            widen(entry, ((TuplePage) before).iterator());
+        }
+        setEntry(page.getId().getPageNumber(), entry);
+    }
+
+    /**
+     * Record a page read from disk. The summary of a page nobody has changed
+     * since it was last known is the page itself; a known one is only
+     * widened, as the pool may hold newer versions of the page.
+     */
+    public synchronized void read(TuplePage page) {
+        final int pageNo = page.getId().getPageNumber();
+        final long[] entry = entry(pageNo);
+        if (entry == null) {
+            final long[] fresh = emptyEntry();
+            widen(fresh, page.iterator());
+            setEntry(pageNo, fresh);
+        } else {
+            widen(entry, page.iterator());
+        }
+    }
+
+    /**
+     * Record pages written to disk and write their summaries to the side
+     * file, one write for each run of adjacent pages. A page written while
+     * dirty is the live page of the pool, under the write lock of the
+     * transaction that changed it, and its summary is recomputed like after
+     * a delete; this is where a committed delete narrows the range. Any
+     * other page written, such as the committed image of a page being
+     * changed again, only widens the summary.
+     *
+     * @param pages  the pages written
+     * @param images the image written for each page
+     */
+    public synchronized void persist(List<TuplePage> pages, List<byte[]> images) throws IOException {
+        final Map<Integer, Integer> checksums = new HashMap<>();
+        for (int i = 0; i < pages.size(); i++) {
+            final TuplePage page = pages.get(i);
+            final int pageNo = page.getId().getPageNumber();
+            if (page.isDirty() != null) {
+                recompute(page);
+            } else if (entry(pageNo) != null) {
+                widen(entry(pageNo), page.iterator());
+            }
+            checksums.put(pageNo, checksum(images.get(i)));
+        }
+        final int[] pageNos = checksums.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        if (this.out == null) {
+            this.out = new RandomAccessFile(this.file, "rw");
+        }
+        SideFileHeader.write(this.out, MAGIC, this.dataFile);
+        int first = 0;
+        while (first < pageNos.length) {
+            // 找出从first开始页号连续的一段，一次写出去
+            int last = first + 1;
+            while (last < pageNos.length && pageNos[last] == pageNos[last - 1] + 1) {
+                last++;
+            }
+            final ByteBuffer buf = ByteBuffer.allocate((last - first) * this.entrySize);
+            for (int i = first; i < last; i++) {
+                putEntry(buf, entry(pageNos[i]), checksums.get(pageNos[i]));
+            }
+            this.out.seek(SideFileHeader.SIZE + (long) pageNos[first] * this.entrySize);
+            this.out.write(buf.array());
+            first = last;
+        }
+    }
+
+    private void putEntry(final ByteBuffer buf, final long[] entry, final int checksum) {
+        final int start = buf.position();
+        buf.put(entry == null ? UNKNOWN : KNOWN);
+        buf.putInt(checksum);
+        if (entry != null) {
+            for (final long key : entry) {
+                buf.putLong(key);
+            }
+        }
+        buf.position(start + this.entrySize);
+    }
+
+    /**
+     * @return false if no tuple of the page can satisfy all the predicates,
+     * true if some may, or if the page is unknown
+     */
+    public synchronized boolean mayMatch(int pageNo, List<Predicate> predicates) {
+        final long[] entry = entry(pageNo);
+        if (entry == null) {
+            return true;
+        }
+        for (final Predicate p : predicates) {
+            if (!mayMatch(entry, p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean mayMatch(final long[] entry, final Predicate p) {
+        final int field = p.getField();
+        final long min = entry[2 * field];
+        final long max = entry[2 * field + 1];
+        if (min > max) {
+            // 空页
+            return false;
+        }
+        final Type type = this.td.getFieldType(field);
+        if (p.getOperand() == null || p.getOperand().getType() != type) {
+            return true;
+        }
+        final long key = key(p.getOperand());
+        // 字符串只比较前缀，前缀相同时大小不确定，所以边界都要算上
+        final boolean exact = type == Type.INT_TYPE;
+        switch (p.getOp()) {
+            case EQUALS:
+                return min <= key && key <= max;
+            case GREATER_THAN:
+                return exact ? max > key : max >= key;
+            case GREATER_THAN_OR_EQ:
+                return max >= key;
+            case LESS_THAN:
+                return exact ? min < key : min <= key;
+            case LESS_THAN_OR_EQ:
+                return min <= key;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Forget the pages from numPages on, after the heap file was cut to
+     * numPages pages.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        if (numPages < this.entries.length) {
+            Arrays.fill(this.entries, numPages, this.entries.length, null);
+        }
+        if (this.out == null) {
+            this.out = new RandomAccessFile(this.file, "rw");
+        }
+        SideFileHeader.write(this.out, MAGIC, this.dataFile);
+        this.out.setLength(Math.min(this.out.length(), SideFileHeader.SIZE + (long) numPages * this.entrySize));
+    }
+}
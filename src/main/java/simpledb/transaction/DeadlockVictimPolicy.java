@@ -0,0 +1,17 @@
+package simpledb.transaction;
+
+/**
+ * How the LockManager picks the transaction to abort when it finds a
+ * deadlock.
+ * 发现死锁时选择哪个事务作为牺牲者
+ */
+public enum DeadlockVictimPolicy {
+    /**
+     * Abort the transaction that started last (largest transaction id).
+     */
+    YOUNGEST,
+    /**
+     * Abort the transaction holding the fewest locks.
+     */
+    LEAST_WORK
+}
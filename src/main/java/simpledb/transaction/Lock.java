@@ -1,11 +1,21 @@
 package simpledb.transaction;
 
 public class Lock {
+    // 共享锁（读锁）
+    public static final int SHARED = 0;
+    // 独占锁（写锁）
+    public static final int EXCLUSIVE = 1;
+    // 意向共享锁，只加在表上，表示要读表中的某些页
+    public static final int INTENTION_SHARED = 2;
+    // 意向独占锁，只加在表上，表示要写表中的某些页
+    public static final int INTENTION_EXCLUSIVE = 3;
+    // 共享意向独占锁：读整张表，同时写其中的某些页
+    public static final int SHARED_INTENTION_EXCLUSIVE = 4;
+
     // 加锁的事务的ID
     private TransactionId tid;
-    // 0 共享锁 1 独占锁
-    // 0 读锁 1 写锁
-    private int lockType;
+    // 锁的模式，见上面的常量；升级时在latch下修改，加锁的快速路径不拿latch读
+    private volatile int lockType;
 
     public Lock(final TransactionId tid, final int lockType) {
         this.tid = tid;
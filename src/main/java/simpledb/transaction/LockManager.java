@@ -1,119 +1,626 @@
 package simpledb.transaction;
 
+import simpledb.common.DeadlockException;
 import simpledb.storage.PageId;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager keeps the table and page locks of all transactions.
+ * 两级锁管理：表上加意向锁（IS/IX/SIX）或整表锁（S/X），页上加读写锁
+ * <p>
+ * Every lockable resource has a granted list and a FIFO wait queue. A request
+ * that cannot be granted is queued behind the resource's earlier waiters, and
+ * the requesting thread parks until a release grants it. Locks are granted in
+ * FIFO order, so a stream of readers cannot starve a writer. A conversion of
+ * a held lock to a stronger mode (e.g. S to X) goes to the head of the queue.
+ * <p>
+ * Locking a page first takes the matching intention lock on its table. A
+ * page lock is skipped when the table lock already covers it. Once a
+ * transaction holds more page locks on one table than the escalation
+ * threshold, the manager tries to trade them for a single S or X table lock.
+ * It only does so when the table lock can be had without waiting.
+ * <p>
+ * A request for a lock the transaction already holds in the requested mode
+ * or a stronger one, such as every buffer pool hit after the first, is
+ * answered from the transaction's own lock list without taking the latch
+ * that guards the lock table. Only the transaction itself gives up its
+ * locks, so the answer cannot go stale while it is being used.
+ * <p>
+ * Deadlocks are found on the spot: whenever a request has to wait, the
+ * waits-for graph is searched for a cycle through the new waiter. If one
+ * exists, a victim picked by the {@link DeadlockVictimPolicy} is aborted
+ * with a {@link DeadlockException} right away.
+ */
 public class LockManager {
-    private final Map<PageId, List<Lock>> lockMap;
+
+    /**
+     * Default number of page locks a transaction may hold on one table before
+     * they are escalated to a table lock.
+     */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 5000;
+
+    // 兼容矩阵 [已持有][请求]，顺序为 S, X, IS, IX, SIX
+    private static final boolean[][] COMPATIBLE = {
+            {true, false, true, false, false},
+            {false, false, false, false, false},
+            {true, false, true, true, true},
+            {false, false, true, true, false},
+            {false, false, true, false, false},
+    };
+
+    // 同时持有两种模式时等价的最弱模式 [已持有][请求]
+    private static final int[][] SUPREMUM = {
+            {Lock.SHARED, Lock.EXCLUSIVE, Lock.SHARED, Lock.SHARED_INTENTION_EXCLUSIVE, Lock.SHARED_INTENTION_EXCLUSIVE},
+            {Lock.EXCLUSIVE, Lock.EXCLUSIVE, Lock.EXCLUSIVE, Lock.EXCLUSIVE, Lock.EXCLUSIVE},
+            {Lock.SHARED, Lock.EXCLUSIVE, Lock.INTENTION_SHARED, Lock.INTENTION_EXCLUSIVE, Lock.SHARED_INTENTION_EXCLUSIVE},
+            {Lock.SHARED_INTENTION_EXCLUSIVE, Lock.EXCLUSIVE, Lock.INTENTION_EXCLUSIVE, Lock.INTENTION_EXCLUSIVE, Lock.SHARED_INTENTION_EXCLUSIVE},
+            {Lock.SHARED_INTENTION_EXCLUSIVE, Lock.EXCLUSIVE, Lock.SHARED_INTENTION_EXCLUSIVE, Lock.SHARED_INTENTION_EXCLUSIVE, Lock.SHARED_INTENTION_EXCLUSIVE},
+    };
+
+    // 表锁的key，和页锁放在同一张锁表里
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(final int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == this.tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.tableId;
+        }
+    }
+
+    // 一次加锁请求
+    private static class LockRequest {
+        final Lock lock;
+        // 请求的模式，升级时是升级后的模式
+        final int mode;
+        // 是否是已持有的锁升级
+        final boolean upgrade;
+        boolean granted;
+        // 被死锁检测选为牺牲者
+        boolean aborted;
+
+        LockRequest(final Lock lock, final int mode, final boolean upgrade) {
+            this.lock = lock;
+            this.mode = mode;
+            this.upgrade = upgrade;
+        }
+    }
+
+    // 每个资源（表或页）的锁状态
+    private class LockQueue {
+        final List<Lock> granted = new ArrayList<>();
+        final LinkedList<LockRequest> waiting = new LinkedList<>();
+        // 这个资源上的锁被释放时唤醒等待者
+        final Condition released = latch.newCondition();
+    }
+
+    // 一个事务持有的锁，在latch下修改，快速路径不拿latch直接读
+    private static class TxnLocks {
+        final Map<PageId, Lock> pages = new ConcurrentHashMap<>();
+        final Map<Integer, Lock> tables = new ConcurrentHashMap<>();
+        // 表id -> 在这个表上持有的页锁数量，用于锁升级
+        final Map<Integer, Integer> pagesPerTable = new HashMap<>();
+
+        boolean isEmpty() {
+            return this.pages.isEmpty() && this.tables.isEmpty();
+        }
+    }
+
+    // 保护锁表的latch，只在修改锁表的短暂时间内持有，等待时会释放
+    private final ReentrantLock latch;
+    // 资源（TableKey或PageId） -> 锁状态
+    private final Map<Object, LockQueue> lockMap;
+    // 等待图：正在等待的事务 -> 它在等的资源
+    private final Map<TransactionId, Object> waitingFor;
+    // 事务 -> 它持有的锁，释放锁时只需要遍历自己的锁
+    private final Map<TransactionId, TxnLocks> txnLocks;
+
+    private DeadlockVictimPolicy victimPolicy;
+    private int escalationThreshold;
 
     public LockManager() {
-        this.lockMap = new ConcurrentHashMap<>();
+        this.latch = new ReentrantLock();
+        this.lockMap = new HashMap<>();
+        this.waitingFor = new HashMap<>();
+        this.txnLocks = new ConcurrentHashMap<>();
+        this.victimPolicy = DeadlockVictimPolicy.YOUNGEST;
+        this.escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+    }
+
+    public void setVictimPolicy(final DeadlockVictimPolicy victimPolicy) {
+        this.victimPolicy = victimPolicy;
+    }
+
+    /**
+     * Set the number of page locks a transaction may hold on one table before
+     * the manager tries to escalate them to a table lock.
+     */
+    public void setEscalationThreshold(final int escalationThreshold) {
+        this.escalationThreshold = escalationThreshold;
     }
 
-    // 尝试获取锁
-    public boolean tryAcquireLock(final PageId pageId, final TransactionId tid, final int lockType, final int timeout) {
-        final long now = System.currentTimeMillis();
-        // 如果过了超时时间，则无法获取到锁
-        while (true) {
-            if (System.currentTimeMillis() - now >= timeout) {
+    /**
+     * Acquire a lock on the page, parking until it is granted.
+     *
+     * @param pageId   the page to lock
+     * @param tid      the requesting transaction
+     * @param lockType {@link Lock#SHARED} or {@link Lock#EXCLUSIVE}
+     * @throws DeadlockException if waiting would deadlock and this transaction was chosen as the victim,
+     *                           or the thread was interrupted while waiting
+     */
+    public void acquireLock(final PageId pageId, final TransactionId tid, final int lockType) throws DeadlockException {
+        // 不限时的等待只能以拿到锁或者抛异常结束
+        if (!tryAcquireLock(pageId, tid, lockType, -1)) {
+            throw new DeadlockException();
+        }
+    }
+
+    /**
+     * Acquire a lock on the page, parking until it is granted or the timeout
+     * expires. The matching intention lock on the page's table is taken first.
+     *
+     * @param pageId   the page to lock
+     * @param tid      the requesting transaction
+     * @param lockType {@link Lock#SHARED} or {@link Lock#EXCLUSIVE}
+     * @param timeout  the maximum time to wait in milliseconds, 0 to never wait, negative to wait forever
+     * @return true if the lock was granted, false if the wait timed out
+     * @throws DeadlockException if waiting would deadlock and this transaction was chosen as the victim,
+     *                           or the thread was interrupted while waiting
+     */
+    public boolean tryAcquireLock(final PageId pageId, final TransactionId tid, final int lockType, final int timeout) throws DeadlockException {
+        // 缓存命中时锁一般已经拿到了，不用拿latch
+        if (alreadyHolds(pageId, tid, lockType)) {
+            return true;
+        }
+        final TableKey table = new TableKey(pageId.getTableId());
+        this.latch.lock();
+        try {
+            // 表锁已经覆盖了这一页，不需要再加页锁
+            if (coversPage(getMode(table, tid), lockType)) {
+                return true;
+            }
+            final int intention = lockType == Lock.SHARED ? Lock.INTENTION_SHARED : Lock.INTENTION_EXCLUSIVE;
+            if (!acquire(table, tid, intention, timeout)) {
                 return false;
             }
-            // 获取锁
-            if (acquireLock(pageId, tid, lockType)) {
-                return true;
+            if (!acquire(pageId, tid, lockType, timeout)) {
+                return false;
             }
+            escalate(tid, table);
+            return true;
+        } finally {
+            this.latch.unlock();
         }
+    }
 
+    /**
+     * Acquire a lock on a whole table, parking until it is granted.
+     *
+     * @param tableId  the table to lock
+     * @param tid      the requesting transaction
+     * @param lockType any of the lock modes in {@link Lock}
+     * @throws DeadlockException if waiting would deadlock and this transaction was chosen as the victim,
+     *                           or the thread was interrupted while waiting
+     */
+    public void acquireTableLock(final int tableId, final TransactionId tid, final int lockType) throws DeadlockException {
+        this.latch.lock();
+        try {
+            if (!acquire(new TableKey(tableId), tid, lockType, -1)) {
+                throw new DeadlockException();
+            }
+        } finally {
+            this.latch.unlock();
+        }
     }
 
-    // 获取锁
-    public synchronized boolean acquireLock(final PageId pageId, final TransactionId tid, final int lockType) {
-        // 1.If page is unlock, just return true
-        // 如果这一页没有上锁
-        if (!this.lockMap.containsKey(pageId)) {
-            final Lock lock = new Lock(tid, lockType);
-            final List<Lock> locks = new ArrayList<>();
-            locks.add(lock);
-            this.lockMap.put(pageId, locks);
+    // 在一个资源上加锁，调用者必须持有latch
+    private boolean acquire(final Object resource, final TransactionId tid, final int lockType, final int timeout) throws DeadlockException {
+        long remaining = timeout < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeout);
+        final LockQueue queue = this.lockMap.computeIfAbsent(resource, r -> new LockQueue());
+        final LockRequest request = enqueue(queue, resource, tid, lockType);
+        if (request == null) {
             return true;
         }
-        final List<Lock> locks = this.lockMap.get(pageId);
-
-        // 2.Check whether this txn holds a lock
-        for (final Lock lock : locks) {
-            if (lock.getTid().equals(tid)) {
-                if (lock.getLockType() == lockType) {
-                    return true;
-                }
-                if (lock.getLockType() == 1) {
-                    return true;
+        if (remaining > 0L) {
+            this.waitingFor.put(tid, resource);
+            detectDeadlock(tid);
+        }
+        // 在等待队列中睡眠，直到被授予锁、超时、被中断或者被选为死锁的牺牲者
+        boolean interrupted = false;
+        while (!request.granted) {
+            if (request.aborted || interrupted || remaining <= 0L) {
+                this.waitingFor.remove(tid);
+                queue.waiting.remove(request);
+                // 自己离开队列后，后面的请求可能可以被授予了
+                grantWaiters(queue, resource);
+                removeIfUnused(resource, queue);
+                if (interrupted) {
+                    // 恢复中断标记，当作事务被中止
+                    Thread.currentThread().interrupt();
+                    throw new DeadlockException();
                 }
-                if (lock.getLockType() == 0 && locks.size() == 1) {
-                    lock.setLockType(1);
-                    return true;
+                if (request.aborted) {
+                    throw new DeadlockException();
                 }
                 return false;
             }
+            try {
+                if (timeout < 0) {
+                    queue.released.await();
+                } else {
+                    remaining = queue.released.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
         }
-        // 3.Check whether exists a writeLock
-        if (locks.size() > 0 && locks.get(0).getLockType() == 1) {
+        this.waitingFor.remove(tid);
+        if (interrupted) {
+            // 中断的同时锁已经给了，照样拿着，只把中断标记留给调用者
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    // 页锁太多时尝试换成一个表锁，拿不到表锁（需要等待）就继续用页锁
+    private void escalate(final TransactionId tid, final TableKey table) throws DeadlockException {
+        final TxnLocks locks = this.txnLocks.get(tid);
+        if (locks == null || locks.pagesPerTable.getOrDefault(table.tableId, 0) <= this.escalationThreshold) {
+            return;
+        }
+        final int target = getMode(table, tid) == Lock.INTENTION_SHARED ? Lock.SHARED : Lock.EXCLUSIVE;
+        if (!acquire(table, tid, target, 0)) {
+            return;
+        }
+        for (final PageId pageId : new ArrayList<>(locks.pages.keySet())) {
+            if (pageId.getTableId() == table.tableId) {
+                release(pageId, tid);
+            }
+        }
+    }
+
+    // 不拿latch，看事务是否已经持有足够强的页锁或者覆盖这一页的表锁；
+    // 锁只在事务自己释放时才会被拿走，所以读到的不会在事务用它的时候过期
+    private boolean alreadyHolds(final PageId pageId, final TransactionId tid, final int lockType) {
+        final TxnLocks locks = this.txnLocks.get(tid);
+        if (locks == null) {
             return false;
         }
+        final Lock page = locks.pages.get(pageId);
+        if (page != null) {
+            final int mode = page.getLockType();
+            if (SUPREMUM[mode][lockType] == mode) {
+                return true;
+            }
+        }
+        final Lock table = locks.tables.get(pageId.getTableId());
+        return table != null && coversPage(table.getLockType(), lockType);
+    }
 
-        // 4.There already exists another locks, so we just can get a readLock
-        if (lockType == 0) {
-            final Lock lock = new Lock(tid, lockType);
-            locks.add(lock);
+    // 表锁模式是否已经覆盖了页上的这种锁
+    private boolean coversPage(final int tableMode, final int pageLockType) {
+        if (tableMode == Lock.EXCLUSIVE) {
             return true;
         }
-        return false;
+        return pageLockType == Lock.SHARED && (tableMode == Lock.SHARED || tableMode == Lock.SHARED_INTENTION_EXCLUSIVE);
     }
 
-    // 释放锁
-    public synchronized boolean releaseLock(final PageId pageId, final TransactionId tid) {
-        if (!this.lockMap.containsKey(pageId)) {
-            return false;
+    // 事务在资源上持有的锁模式，没有持有时返回-1
+    private int getMode(final Object resource, final TransactionId tid) {
+        final LockQueue queue = this.lockMap.get(resource);
+        if (queue == null) {
+            return -1;
         }
-        final List<Lock> locks = this.lockMap.get(pageId);
-        for (int i = 0; i < locks.size(); i++) {
-            final Lock lock = locks.get(i);
-            if (lock.getTid().equals(tid)) {
-                locks.remove(lock);
-                this.lockMap.put(pageId, locks);
-                if (locks.size() == 0) {
-                    this.lockMap.remove(pageId);
+        final Lock lock = findLock(queue.granted, tid);
+        return lock == null ? -1 : lock.getLockType();
+    }
+
+    // 在等待图中寻找经过tid的环，找到的话选出牺牲者并唤醒它
+    private void detectDeadlock(final TransactionId tid) {
+        final List<TransactionId> cycle = findCycle(tid, tid, new ArrayList<>(), new HashSet<>());
+        if (cycle == null) {
+            return;
+        }
+        final TransactionId victim = chooseVictim(cycle);
+        final Object resource = this.waitingFor.get(victim);
+        final LockQueue queue = this.lockMap.get(resource);
+        for (final LockRequest request : queue.waiting) {
+            if (request.lock.getTid().equals(victim)) {
+                request.aborted = true;
+            }
+        }
+        queue.released.signalAll();
+    }
+
+    // 深度优先搜索，path为从start到current的路径
+    private List<TransactionId> findCycle(final TransactionId start, final TransactionId current, final List<TransactionId> path, final Set<TransactionId> visited) {
+        path.add(current);
+        visited.add(current);
+        for (final TransactionId next : getBlockers(current)) {
+            if (next.equals(start)) {
+                return path;
+            }
+            if (!visited.contains(next)) {
+                final List<TransactionId> cycle = findCycle(start, next, path, visited);
+                if (cycle != null) {
+                    return cycle;
                 }
-                return true;
             }
         }
-        return false;
+        path.remove(path.size() - 1);
+        return null;
     }
 
-    // 通过事务释放锁
-    public synchronized void releaseLockByTxn(final TransactionId tid) {
-        this.lockMap.forEach((pid, locks) -> {
-            if (holdsLock(pid, tid)) {
-                releaseLock(pid, tid);
+    // 找出tid正在等待的事务：不兼容的持有者，以及排在它前面的所有等待者（先进先出）
+    private Set<TransactionId> getBlockers(final TransactionId tid) {
+        final Set<TransactionId> blockers = new HashSet<>();
+        final Object resource = this.waitingFor.get(tid);
+        if (resource == null) {
+            return blockers;
+        }
+        final LockQueue queue = this.lockMap.get(resource);
+        LockRequest request = null;
+        for (final LockRequest waiting : queue.waiting) {
+            if (waiting.lock.getTid().equals(tid)) {
+                request = waiting;
+                break;
+            }
+            blockers.add(waiting.lock.getTid());
+        }
+        if (request == null) {
+            return blockers;
+        }
+        for (final Lock lock : queue.granted) {
+            if (!lock.getTid().equals(tid) && !COMPATIBLE[lock.getLockType()][request.mode]) {
+                blockers.add(lock.getTid());
             }
-        });
+        }
+        return blockers;
     }
 
-    // 判断是否持有锁
-    public synchronized boolean holdsLock(final PageId pageId, final TransactionId tid) {
-        // 如果这个页面没有任何锁，直接返回
-        if (!this.lockMap.containsKey(pageId)) {
-            return false;
+    private TransactionId chooseVictim(final List<TransactionId> cycle) {
+        TransactionId victim = cycle.get(0);
+        for (final TransactionId tid : cycle) {
+            if (this.victimPolicy == DeadlockVictimPolicy.YOUNGEST) {
+                if (tid.getId() > victim.getId()) {
+                    victim = tid;
+                }
+            } else if (countLocks(tid) < countLocks(victim)) {
+                victim = tid;
+            }
+        }
+        return victim;
+    }
+
+    // 事务持有的锁的数量，作为它已经做了多少工作的估计
+    private int countLocks(final TransactionId tid) {
+        final TxnLocks locks = this.txnLocks.get(tid);
+        return locks == null ? 0 : locks.pages.size() + locks.tables.size();
+    }
+
+    private void addTxnLock(final TransactionId tid, final Object resource, final Lock lock) {
+        final TxnLocks locks = this.txnLocks.computeIfAbsent(tid, t -> new TxnLocks());
+        if (resource instanceof TableKey) {
+            locks.tables.put(((TableKey) resource).tableId, lock);
+        } else {
+            final PageId pageId = (PageId) resource;
+            locks.pages.put(pageId, lock);
+            locks.pagesPerTable.merge(pageId.getTableId(), 1, Integer::sum);
+        }
+    }
+
+    private void removeTxnLock(final TransactionId tid, final Object resource) {
+        final TxnLocks locks = this.txnLocks.get(tid);
+        if (locks == null) {
+            return;
+        }
+        if (resource instanceof TableKey) {
+            locks.tables.remove(((TableKey) resource).tableId);
+        } else {
+            final PageId pageId = (PageId) resource;
+            if (locks.pages.remove(pageId) != null) {
+                locks.pagesPerTable.computeIfPresent(pageId.getTableId(), (t, n) -> n == 1 ? null : n - 1);
+            }
+        }
+        if (locks.isEmpty()) {
+            this.txnLocks.remove(tid);
+        }
+    }
+
+    // 如果可以立即授予锁返回null，否则将请求放入等待队列并返回
+    private LockRequest enqueue(final LockQueue queue, final Object resource, final TransactionId tid, final int lockType) {
+        // 1.Check whether this txn already holds a lock
+        final Lock held = findLock(queue.granted, tid);
+        if (held != null) {
+            final int mode = SUPREMUM[held.getLockType()][lockType];
+            if (mode == held.getLockType()) {
+                return null;
+            }
+            // 2.Convert the held lock if no other holder conflicts with the stronger mode
+            if (isCompatible(queue.granted, tid, mode)) {
+                held.setLockType(mode);
+                return null;
+            }
+            // 升级请求排在队首，避免和后来的请求互相等待
+            final LockRequest request = new LockRequest(held, mode, true);
+            queue.waiting.addFirst(request);
+            return request;
+        }
+        // 3.Grant at once only if nobody is waiting ahead of us (FIFO)
+        final Lock lock = new Lock(tid, lockType);
+        if (queue.waiting.isEmpty() && isCompatible(queue.granted, tid, lockType)) {
+            queue.granted.add(lock);
+            addTxnLock(tid, resource, lock);
+            return null;
+        }
+        final LockRequest request = new LockRequest(lock, lockType, false);
+        queue.waiting.addLast(request);
+        return request;
+    }
+
+    // 从队首开始依次授予锁，遇到第一个不能授予的请求就停下
+    private void grantWaiters(final LockQueue queue, final Object resource) {
+        boolean grantedAny = false;
+        while (!queue.waiting.isEmpty()) {
+            final LockRequest request = queue.waiting.getFirst();
+            final TransactionId tid = request.lock.getTid();
+            if (!isCompatible(queue.granted, tid, request.mode)) {
+                break;
+            }
+            if (request.upgrade) {
+                request.lock.setLockType(request.mode);
+            } else {
+                queue.granted.add(request.lock);
+                addTxnLock(tid, resource, request.lock);
+            }
+            queue.waiting.removeFirst();
+            request.granted = true;
+            grantedAny = true;
+        }
+        if (grantedAny) {
+            queue.released.signalAll();
+        }
+    }
+
+    // 请求的模式是否和其他事务已持有的锁都兼容
+    private boolean isCompatible(final List<Lock> granted, final TransactionId tid, final int mode) {
+        for (final Lock lock : granted) {
+            if (!lock.getTid().equals(tid) && !COMPATIBLE[lock.getLockType()][mode]) {
+                return false;
+            }
         }
-        final List<Lock> locks = this.lockMap.get(pageId);
-        // 遍历锁，查找当前事务是否持有锁
+        return true;
+    }
+
+    private Lock findLock(final List<Lock> locks, final TransactionId tid) {
         for (final Lock lock : locks) {
             if (lock.getTid().equals(tid)) {
+                return lock;
+            }
+        }
+        return null;
+    }
+
+    private void removeIfUnused(final Object resource, final LockQueue queue) {
+        if (queue.granted.isEmpty() && queue.waiting.isEmpty()) {
+            this.lockMap.remove(resource);
+        }
+    }
+
+    // 释放一个资源上的锁，调用者必须持有latch
+    private boolean release(final Object resource, final TransactionId tid) {
+        final LockQueue queue = this.lockMap.get(resource);
+        if (queue == null) {
+            return false;
+        }
+        final Lock lock = findLock(queue.granted, tid);
+        if (lock == null) {
+            return false;
+        }
+        queue.granted.remove(lock);
+        removeTxnLock(tid, resource);
+        grantWaiters(queue, resource);
+        removeIfUnused(resource, queue);
+        return true;
+    }
+
+    // 释放页锁（表上的意向锁一直持有到事务结束）
+    public boolean releaseLock(final PageId pageId, final TransactionId tid) {
+        this.latch.lock();
+        try {
+            return release(pageId, tid);
+        } finally {
+            this.latch.unlock();
+        }
+    }
+
+    // 通过事务释放锁，只遍历这个事务自己持有的锁
+    public void releaseLockByTxn(final TransactionId tid) {
+        this.latch.lock();
+        try {
+            final TxnLocks locks = this.txnLocks.get(tid);
+            if (locks == null) {
+                return;
+            }
+            for (final PageId pageId : new ArrayList<>(locks.pages.keySet())) {
+                release(pageId, tid);
+            }
+            for (final Integer tableId : new ArrayList<>(locks.tables.keySet())) {
+                release(new TableKey(tableId), tid);
+            }
+        } finally {
+            this.latch.unlock();
+        }
+    }
+
+    /**
+     * Returns the pages the transaction currently holds a page lock on. Pages
+     * covered only by a table lock are not included.
+     *
+     * @param tid the transaction
+     * @return a snapshot of the locked pages, empty if it holds no lock
+     */
+    public Set<PageId> getLockedPages(final TransactionId tid) {
+        this.latch.lock();
+        try {
+            final TxnLocks locks = this.txnLocks.get(tid);
+            return locks == null ? Collections.emptySet() : new HashSet<>(locks.pages.keySet());
+        } finally {
+            this.latch.unlock();
+        }
+    }
+
+    /**
+     * Returns the tables the transaction holds an exclusive table lock on,
+     * i.e. tables whose pages it may have modified without page locks.
+     *
+     * @param tid the transaction
+     * @return a snapshot of the table ids
+     */
+    public Set<Integer> getExclusiveTables(final TransactionId tid) {
+        this.latch.lock();
+        try {
+            final TxnLocks locks = this.txnLocks.get(tid);
+            if (locks == null) {
+                return Collections.emptySet();
+            }
+            final Set<Integer> tables = new HashSet<>();
+            for (final Integer tableId : locks.tables.keySet()) {
+                if (getMode(new TableKey(tableId), tid) == Lock.EXCLUSIVE) {
+                    tables.add(tableId);
+                }
+            }
+            return tables;
+        } finally {
+            this.latch.unlock();
+        }
+    }
+
+    // 判断是否持有锁（页锁，或者覆盖这一页的表锁）
+    public boolean holdsLock(final PageId pageId, final TransactionId tid) {
+        this.latch.lock();
+        try {
+            // 如果这个页面没有任何锁，直接返回
+            if (getMode(pageId, tid) != -1) {
                 return true;
             }
+            return coversPage(getMode(new TableKey(pageId.getTableId()), tid), Lock.SHARED);
+        } finally {
+            this.latch.unlock();
         }
-        return false;
     }
 
 }
@@ -11,10 +11,39 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    // 快照读：扫描不加锁，读事务开始时已提交的版本
+    private final boolean snapshot;
+    // 乐观只读：读页不加锁，结束时校验读过的页有没有被写过
+    private final boolean readOnly;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param snapshot if true, sequential scans of the transaction read a
+     *                 snapshot of the database taken when it starts, without
+     *                 taking page locks. Meant for read-only transactions:
+     *                 writes still lock, but what they read is not validated.
+     */
+    public Transaction(boolean snapshot) {
+        this(snapshot, false);
+    }
+
+    private Transaction(boolean snapshot, boolean readOnly) {
         tid = new TransactionId();
+        this.snapshot = snapshot;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Create an optimistic read-only transaction. It reads pages without
+     * taking locks, except pages that are being written at the time, and may
+     * not write. Call {@link #validate()} before trusting what it read.
+     */
+    public static Transaction readOnly() {
+        return new Transaction(false, true);
     }
 
     /**
@@ -22,6 +51,12 @@ public class Transaction {
      */
     public void start() {
         started = true;
+        if (snapshot) {
+            Database.getBufferPool().beginSnapshot(tid);
+        }
+        if (readOnly) {
+            Database.getBufferPool().beginOptimisticRead(tid);
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -33,6 +68,23 @@ public class Transaction {
         return tid;
     }
 
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Check that no page this transaction read without a lock has been
+     * written since. Always true for transactions that are not read-only.
+     * If it returns false, the transaction should be aborted and retried.
+     */
+    public boolean validate() {
+        return !readOnly || Database.getBufferPool().validateReads(tid);
+    }
+
     /**
      * Finish the transaction
      */
@@ -0,0 +1,165 @@
+package simpledb.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second-chance) replacement policy.
+ * 时钟置换算法：每个槽一个引用位，命中时置1，时钟指针扫过时清0，引用位为0的页被淘汰
+ * <p>
+ * Keys live in a fixed ring of slots. A hit only sets the reference bit of the
+ * key's slot, so it never takes a lock. Eviction advances the clock hand,
+ * clearing reference bits until it finds an unreferenced evictable key. That
+ * costs amortized O(1) and allocates nothing.
+ * <p>
+ * New keys enter with their reference bit cleared. A page touched only once,
+ * as by a sequential scan, is therefore evicted on the next pass of the hand.
+ * Pages that are touched again get a second chance, so a scan does not push
+ * the hot working set out of the pool.
+ */
+public class ClockReplacementPolicy<K> implements ReplacementPolicy<K> {
+
+    // key -> 槽的位置
+    private final Map<K, Integer> slots;
+    // 槽的位置 -> key，空槽为null
+    private Object[] keys;
+    // 引用位，命中路径不加锁直接写
+    private volatile AtomicIntegerArray referenced;
+    // 空闲槽栈
+    private int[] freeSlots;
+    private int numFree;
+    // 时钟指针
+    private int hand;
+
+    public ClockReplacementPolicy(final int capacity) {
+        final int size = Math.max(capacity, 1);
+        this.slots = new ConcurrentHashMap<>(size);
+        this.keys = new Object[size];
+        this.referenced = new AtomicIntegerArray(size);
+        this.freeSlots = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.freeSlots[i] = size - 1 - i;
+        }
+        this.numFree = size;
+        this.hand = 0;
+    }
+
+    @Override
+    public synchronized void recordInsert(final K key) {
+        if (this.slots.containsKey(key)) {
+            recordAccess(key);
+            return;
+        }
+        if (this.numFree == 0) {
+            grow();
+        }
+        final int slot = this.freeSlots[--this.numFree];
+        this.keys[slot] = key;
+        // 新页引用位为0，只被访问一次的页（比如顺序扫描）会最先被淘汰
+        this.referenced.set(slot, 0);
+        this.slots.put(key, slot);
+    }
+
+    @Override
+    public void recordAccess(final K key) {
+        final Integer slot = this.slots.get(key);
+        if (slot == null) {
+            return;
+        }
+        final AtomicIntegerArray bits = this.referenced;
+        // 已经是1就不再写，避免命中时反复写同一个缓存行
+        if (slot < bits.length() && bits.get(slot) == 0) {
+            bits.lazySet(slot, 1);
+        }
+    }
+
+    @Override
+    public boolean isReferenced(final K key) {
+        final Integer slot = this.slots.get(key);
+        final AtomicIntegerArray bits = this.referenced;
+        return slot != null && slot < bits.length() && bits.get(slot) == 1;
+    }
+
+    @Override
+    public synchronized void recordRemove(final K key) {
+        final Integer slot = this.slots.remove(key);
+        if (slot == null) {
+            return;
+        }
+        this.keys[slot] = null;
+        this.referenced.set(slot, 0);
+        this.freeSlots[this.numFree++] = slot;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized K selectVictim(final Predicate<K> evictable) {
+        final int size = this.keys.length;
+        // 最多转两圈：第一圈清引用位，第二圈一定能遇到可淘汰的页（如果有的话）
+        for (int step = 0; step < 2 * size; step++) {
+            final int slot = this.hand;
+            this.hand = (this.hand + 1) % size;
+            final K key = (K) this.keys[slot];
+            if (key == null) {
+                continue;
+            }
+            if (this.referenced.get(slot) == 1) {
+                this.referenced.set(slot, 0);
+                continue;
+            }
+            if (evictable.test(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized List<K> peekVictims(final int max, final Predicate<K> filter) {
+        final int size = this.keys.length;
+        final List<K> victims = new ArrayList<>();
+        final List<K> referencedKeys = new ArrayList<>();
+        // 从指针开始转一圈：引用位为0的先被淘汰，引用位为1的要等下一圈
+        for (int step = 0; step < size && victims.size() < max; step++) {
+            final int slot = (this.hand + step) % size;
+            final K key = (K) this.keys[slot];
+            if (key == null || !filter.test(key)) {
+                continue;
+            }
+            if (this.referenced.get(slot) == 1) {
+                referencedKeys.add(key);
+            } else {
+                victims.add(key);
+            }
+        }
+        for (int i = 0; i < referencedKeys.size() && victims.size() < max; i++) {
+            victims.add(referencedKeys.get(i));
+        }
+        return victims;
+    }
+
+    // 缓存临时超过容量时（比如插入产生的脏页），扩大时钟
+    private void grow() {
+        final int oldSize = this.keys.length;
+        final int newSize = oldSize * 2;
+        final Object[] newKeys = new Object[newSize];
+        System.arraycopy(this.keys, 0, newKeys, 0, oldSize);
+        final AtomicIntegerArray newReferenced = new AtomicIntegerArray(newSize);
+        for (int i = 0; i < oldSize; i++) {
+            newReferenced.set(i, this.referenced.get(i));
+        }
+        final int[] newFreeSlots = new int[newSize];
+        for (int i = 0; i < oldSize; i++) {
+            newFreeSlots[i] = newSize - 1 - i;
+        }
+        this.keys = newKeys;
+        this.referenced = newReferenced;
+        this.freeSlots = newFreeSlots;
+        this.numFree = oldSize;
+    }
+}
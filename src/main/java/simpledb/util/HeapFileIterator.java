@@ -3,77 +3,129 @@ package simpledb.util;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferAccessStrategy;
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFileIterator;
-import simpledb.storage.HeapPage;
+import simpledb.storage.HeapFile;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.Tuple;
+import simpledb.storage.TuplePage;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class HeapFileIterator implements DbFileIterator {
     private final int totalPage;
     private final TransactionId transactionId;
     private final int tableId;
-    private int currentPageId;
-    private PageCachePool pageCachePool;
+    // 下一个要读的页号
+    private int nextPageNo;
+    private Iterator<Tuple> tupleIterator;
+    // 大表扫描使用环形缓冲区，避免冲掉缓存中的热点页
+    private BufferAccessStrategy accessStrategy;
+    // 顺序读时在后台提前把后面的页读进缓存
+    private ReadAheadWindow readAhead;
+    private boolean snapshot;
+    // 下推下来的条件，用区域映射跳过不可能满足的页
+    private final List<Predicate> pagePredicates;
 
     public HeapFileIterator(final int totalPages, final TransactionId transactionId, final int tableId) {
         this.totalPage = totalPages;
         this.transactionId = transactionId;
         this.tableId = tableId;
+        this.pagePredicates = new ArrayList<>();
+    }
+
+    /**
+     * Skip the pages that surely hold no tuple satisfying the predicate, by
+     * the per-page minimum and maximum of its column. The pages that are read
+     * are returned whole: the iterator still returns tuples that do not
+     * satisfy the predicate, and the caller must filter them.
+     *
+     * @param p a predicate on a field of the table
+     */
+    public void addPagePredicate(final Predicate p) {
+        this.pagePredicates.add(p);
+    }
+
+    // 这一页是否可能有满足条件的行；快照读可能看到比区域映射更旧的版本，不跳页
+    private boolean mayMatch(final HeapFile file, final int pageNo) {
+        return this.snapshot || file.mayMatch(pageNo, this.pagePredicates);
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        this.pageCachePool = new PageCachePool(0.2, this.totalPage);
-        this.currentPageId = 0;
-        cacheFilePages();
+        final BufferPool bufferPool = Database.getBufferPool();
+        this.nextPageNo = 0;
+        this.tupleIterator = null;
+        this.accessStrategy = bufferPool.getAccessStrategy(this.totalPage, Database.getCatalog().getPageSize(this.tableId));
+        this.readAhead = new ReadAheadWindow(bufferPool.getMaxReadAhead(this.accessStrategy));
+        this.snapshot = bufferPool.isSnapshotRead(this.transactionId);
     }
 
-    // Cache pages as many as have
-    // 缓存一部分页到pool中
-    public void cacheFilePages() {
-        this.pageCachePool.clear();
-        int i = this.currentPageId;
-        for (; i < this.currentPageId + this.pageCachePool.getMaxCacheNum() && i < this.totalPage; i++) {
-            try {
-                final HeapPageId pageId = new HeapPageId(this.tableId, i);
-                // 在这一步 如果表没有加载到内存中 则会加载
-                final HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.transactionId, pageId, Permissions.READ_ONLY);
-                this.pageCachePool.addPage(page.iterator());
-            } catch (Exception e) {
-                e.printStackTrace();
+    // 按预读窗口在后台读后面的页；跳过的页也算读过，顺序扫描不会因为跳页就停止预读
+    private void readAhead(final HeapFile file, final int pageNo) {
+        final BufferPool bufferPool = Database.getBufferPool();
+        final int count = this.readAhead.access(pageNo);
+        final int end = Math.min(this.readAhead.getStart() + count, this.totalPage);
+        for (int i = this.readAhead.getStart(); i < end; i++) {
+            if (mayMatch(file, i)) {
+                bufferPool.prefetch(new HeapPageId(this.tableId, i), this.accessStrategy);
             }
         }
-        this.currentPageId = i;
-        this.pageCachePool.init();
+    }
+
+    // 读下一页，同时在后台读后面的页
+    private Iterator<Tuple> readPage(final int pageNo) throws DbException, TransactionAbortedException {
+        final BufferPool bufferPool = Database.getBufferPool();
+        readAhead((HeapFile) Database.getCatalog().getDatabaseFile(this.tableId), pageNo);
+        final HeapPageId pageId = new HeapPageId(this.tableId, pageNo);
+        // 快照读不加锁，读快照可见的版本
+        final TuplePage page = this.snapshot
+                ? (TuplePage) bufferPool.getPageSnapshot(this.transactionId, pageId)
+                : (TuplePage) bufferPool.getPage(this.transactionId, pageId, Permissions.READ_ONLY, this.accessStrategy);
+        return page.iterator();
     }
 
     @Override
     // 读取页
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        if (this.pageCachePool == null) {
+        if (this.readAhead == null) {
             return false;
         }
-        if (this.pageCachePool.hasNext()) {
-            return true;
-        }
-        // Cache another batch of pages
-        while (!this.pageCachePool.hasNext()) {
-            cacheFilePages();
-            if (this.totalPage == this.currentPageId) {
-                break;
+        while (this.tupleIterator == null || !this.tupleIterator.hasNext()) {
+            if (this.nextPageNo >= this.totalPage) {
+                return false;
+            }
+            if (!this.pagePredicates.isEmpty()) {
+                final HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(this.tableId);
+                if (!mayMatch(file, this.nextPageNo)) {
+                    readAhead(file, this.nextPageNo++);
+                    continue;
+                }
+            }
+            try {
+                this.tupleIterator = readPage(this.nextPageNo++);
+            } catch (IllegalArgumentException e) {
+                // 打开以后表被整理截短了，截掉的页都是空的
+                if (this.nextPageNo - 1 < ((HeapFile) Database.getCatalog().getDatabaseFile(this.tableId)).numPages()) {
+                    throw e;
+                }
+                return false;
             }
         }
-        return this.pageCachePool.hasNext();
+        return true;
     }
 
     @Override
     public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
         if (hasNext()) {
-            return this.pageCachePool.next();
+            return this.tupleIterator.next();
         }
         throw new NoSuchElementException("The Iterator don't have more elements");
     }
@@ -85,9 +137,8 @@ public class HeapFileIterator implements DbFileIterator {
 
     @Override
     public void close() {
-        if (this.pageCachePool != null) {
-            this.pageCachePool.clear();
-            this.pageCachePool = null;
-        }
+        this.tupleIterator = null;
+        this.readAhead = null;
+        this.accessStrategy = null;
     }
 }
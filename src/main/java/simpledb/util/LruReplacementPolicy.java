@@ -0,0 +1,90 @@
+package simpledb.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Approximate LRU replacement policy.
+ * 近似LRU：每个key有自己的访问时间戳，命中时只写这个时间戳，不再移动共享链表
+ * <p>
+ * A cache hit only writes the volatile stamp of that key, so concurrent hits
+ * never contend on a shared list. The victim is the evictable key with the
+ * oldest stamp, found by a scan on the (already slow) miss path.
+ */
+public class LruReplacementPolicy<K> implements ReplacementPolicy<K> {
+
+    private static class AccessStamp {
+        final long inserted;
+        volatile long lastAccess;
+
+        AccessStamp(final long lastAccess) {
+            this.inserted = lastAccess;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final Map<K, AccessStamp> stamps;
+
+    public LruReplacementPolicy() {
+        this.stamps = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void recordInsert(final K key) {
+        this.stamps.put(key, new AccessStamp(System.nanoTime()));
+    }
+
+    @Override
+    public void recordAccess(final K key) {
+        final AccessStamp stamp = this.stamps.get(key);
+        if (stamp != null) {
+            stamp.lastAccess = System.nanoTime();
+        }
+    }
+
+    @Override
+    public boolean isReferenced(final K key) {
+        final AccessStamp stamp = this.stamps.get(key);
+        return stamp != null && stamp.lastAccess != stamp.inserted;
+    }
+
+    @Override
+    public void recordRemove(final K key) {
+        this.stamps.remove(key);
+    }
+
+    @Override
+    public K selectVictim(final Predicate<K> evictable) {
+        K victim = null;
+        long oldest = Long.MAX_VALUE;
+        for (final Map.Entry<K, AccessStamp> entry : this.stamps.entrySet()) {
+            final long lastAccess = entry.getValue().lastAccess;
+            if (lastAccess < oldest && evictable.test(entry.getKey())) {
+                oldest = lastAccess;
+                victim = entry.getKey();
+            }
+        }
+        return victim;
+    }
+
+    @Override
+    public List<K> peekVictims(final int max, final Predicate<K> filter) {
+        final List<Map.Entry<K, Long>> candidates = new ArrayList<>();
+        for (final Map.Entry<K, AccessStamp> entry : this.stamps.entrySet()) {
+            if (filter.test(entry.getKey())) {
+                candidates.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue().lastAccess));
+            }
+        }
+        // 最久没有访问的最先被淘汰
+        candidates.sort(Map.Entry.comparingByValue());
+        final List<K> victims = new ArrayList<>();
+        for (int i = 0; i < candidates.size() && i < max; i++) {
+            victims.add(candidates.get(i).getKey());
+        }
+        return victims;
+    }
+}
@@ -0,0 +1,411 @@
+package simpledb.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A file read and written with positional FileChannel calls.
+ * 用FileChannel按位置读写文件：不共享文件指针，多个线程可以同时读写同一个文件的不同页
+ * <p>
+ * Positional reads and writes never move a shared file pointer, so
+ * concurrent page misses on one file proceed in parallel instead of racing
+ * on seek() or being serialized. Reads and writes loop until the whole
+ * buffer is transferred. The channel is opened on first use. An interrupted
+ * thread closes a FileChannel for everybody, so the channel is reopened if
+ * some other thread's interrupt closed it.
+ * <p>
+ * Space preallocated by {@link #ensureSize} is zero-filled. How far the file
+ * was really written (its high-water mark) is kept in memory. It is saved in
+ * a side file with the suffix {@code .hwm} only when an extent is
+ * preallocated, the file is truncated or flushed, or it is closed, so
+ * appending a page costs no extra write. The mark is recovered on open
+ * from the saved one and the last non-zero byte before the end of the file.
+ * Files never preallocated have no side file.
+ */
+public class PositionalFile {
+
+    // 一次聚集写最多的缓冲区个数（和系统的IOV_MAX一致）
+    private static final int MAX_GATHER = 1024;
+
+    private final File file;
+    private volatile FileChannel channel;
+    // 聚集写要用通道自己的位置，同一时间只能有一个
+    private final Object gatherLock = new Object();
+    // 高水位文件的内容：已分配的长度和真正写到的位置
+    private static final int HIGH_WATER_SIZE = 2 * Long.BYTES;
+
+    // 已经分配的文件长度，-1表示还不知道
+    private volatile long allocated = -1;
+    // 真正写到的位置（高水位），之后到allocated都是预分配的空间
+    private volatile long used = -1;
+    // 高水位文件，预分配过才有
+    private final File highWaterFile;
+    private RandomAccessFile highWaterOut;
+
+    public PositionalFile(final File file) {
+        this.file = file;
+        this.highWaterFile = new File(file.getPath() + ".hwm");
+        if (isTemporary(file)) {
+            this.highWaterFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Returns true if the file lies in the directory of temporary files, as
+     * the files of temporary and test tables do. Side files kept next to
+     * such a file are deleted on exit with it.
+     */
+    public static boolean isTemporary(final File file) {
+        try {
+            final File tmp = new File(System.getProperty("java.io.tmpdir")).getCanonicalFile();
+            return file.getCanonicalFile().toPath().startsWith(tmp.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the channel of this file, opening it (again) if needed.
+     */
+    public FileChannel channel() throws IOException {
+        FileChannel ch = this.channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = this.channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    this.channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Read from the given position until dst is full or the end of the file
+     * is reached.
+     *
+     * @return the number of bytes read, less than requested only at the end of the file
+     */
+    public int read(final ByteBuffer dst, final long position) throws IOException {
+        while (true) {
+            final int start = dst.position();
+            try {
+                final FileChannel ch = channel();
+                while (dst.hasRemaining()) {
+                    final int n = ch.read(dst, position + (dst.position() - start));
+                    if (n < 0) {
+                        break;
+                    }
+                }
+                return dst.position() - start;
+            } catch (ClosedChannelException e) {
+                // 被别的线程的中断关掉了，重新打开再读一次
+                if (e instanceof ClosedByInterruptException) {
+                    throw e;
+                }
+                dst.position(start);
+            }
+        }
+    }
+
+    /**
+     * Write all of src at the given position.
+     */
+    public void write(final ByteBuffer src, final long position) throws IOException {
+        final int start = src.position();
+        writeFully(src, position);
+        grown(position + (src.position() - start));
+    }
+
+    // 只写数据，不动已分配的长度和高水位
+    private void writeFully(final ByteBuffer src, final long position) throws IOException {
+        while (true) {
+            final int start = src.position();
+            try {
+                final FileChannel ch = channel();
+                while (src.hasRemaining()) {
+                    ch.write(src, position + (src.position() - start));
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (e instanceof ClosedByInterruptException) {
+                    throw e;
+                }
+                src.position(start);
+            }
+        }
+    }
+
+    /**
+     * Write buffers that lie back to back in the file, the first one at the
+     * given position, with one gathering write. FileChannel has no positional
+     * gathering write, so this uses the position of the channel; that is safe
+     * because every other read and write of this class is positional.
+     */
+    public void write(final ByteBuffer[] srcs, final long position) throws IOException {
+        final int[] starts = new int[srcs.length];
+        for (int i = 0; i < srcs.length; i++) {
+            starts[i] = srcs[i].position();
+        }
+        synchronized (this.gatherLock) {
+            while (true) {
+                try {
+                    final FileChannel ch = channel();
+                    ch.position(position);
+                    while (srcs[srcs.length - 1].hasRemaining()) {
+                        ch.write(srcs);
+                    }
+                    grown(ch.position());
+                    return;
+                } catch (ClosedChannelException e) {
+                    if (e instanceof ClosedByInterruptException) {
+                        throw e;
+                    }
+                    for (int i = 0; i < srcs.length; i++) {
+                        srcs[i].position(starts[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write each buffer at its position, in position order, merging buffers
+     * that are adjacent in the file into one gathering write. A batch of
+     * pages turns into a few large sequential writes instead of one small
+     * write per page.
+     *
+     * @param positions the position of each buffer in the file
+     * @param srcs      the buffers to write
+     */
+    public void writeAll(final long[] positions, final ByteBuffer[] srcs) throws IOException {
+        final Integer[] order = new Integer[srcs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> positions[i]));
+        int first = 0;
+        while (first < order.length) {
+            // 找出从first开始在文件中首尾相接的一段
+            long end = positions[order[first]] + srcs[order[first]].remaining();
+            int last = first + 1;
+            while (last < order.length && last - first < MAX_GATHER && positions[order[last]] == end) {
+                end += srcs[order[last]].remaining();
+                last++;
+            }
+            if (last - first == 1) {
+                write(srcs[order[first]], positions[order[first]]);
+            } else {
+                final ByteBuffer[] run = new ByteBuffer[last - first];
+                for (int i = first; i < last; i++) {
+                    run[i - first] = srcs[order[i]];
+                }
+                write(run, positions[order[first]]);
+            }
+            first = last;
+        }
+    }
+
+    /**
+     * Make sure the file is at least minSize bytes long. A file too short is
+     * extended by whole extents, so a file that grows page by page pays for
+     * an extension only once per extent. The new space, whole pages of
+     * pageSize bytes counted from base, is filled with zeros and lies above
+     * the high-water mark until it is written (see {@link #usedSize}).
+     *
+     * @param minSize     the length the file must have
+     * @param extentBytes the unit the file grows by
+     * @param base        offset of the first page in the file
+     * @param pageSize    size of a page
+     */
+    public synchronized void ensureSize(final long minSize, final long extentBytes, final long base, final int pageSize) throws IOException {
+        final long allocated = allocatedSize();
+        if (minSize <= allocated) {
+            return;
+        }
+        final long extent = Math.max(pageSize, extentBytes / pageSize * pageSize);
+        final long newSize = allocated + (minSize - allocated + extent - 1) / extent * extent;
+        long pos = Math.max(allocated, base);
+        // 文件末尾不完整的页补0到页边界
+        final long misalignment = (pos - base) % pageSize;
+        if (misalignment != 0) {
+            writeFully(ByteBuffer.allocate((int) (pageSize - misalignment)), pos);
+            pos += pageSize - misalignment;
+        }
+        // 真正写出来而不是只改长度，区段在磁盘上是连续分配的
+        final int chunkPages = Math.max(1, (1 << 20) / pageSize);
+        final ByteBuffer chunk = ByteBuffer.allocate(chunkPages * pageSize);
+        while (pos < newSize) {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), (newSize - pos + pageSize - 1) / pageSize * pageSize));
+            writeFully(chunk, pos);
+            pos += chunk.limit();
+        }
+        this.allocated = Math.max(this.allocated, pos);
+        saveHighWater();
+    }
+
+    /**
+     * Returns the length of the file as far as this object knows: its length
+     * when first asked, plus everything written or preallocated through this
+     * object since. Growth by other writers is not seen.
+     */
+    public synchronized long allocatedSize() throws IOException {
+        if (this.allocated < 0) {
+            this.allocated = size();
+            this.used = loadHighWater(this.allocated);
+        }
+        return this.allocated;
+    }
+
+    /**
+     * Returns the high-water mark of the file: the end of the last byte
+     * written through {@link #write}, leaving out the preallocated space
+     * after it. For a file never preallocated, or one changed by other
+     * writers since, this is its length. A file opened again may count a
+     * few more bytes than were written, but never fewer, except that pages
+     * of zeros written at the end after the mark was last saved are taken
+     * as still unused.
+     */
+    public synchronized long usedSize() throws IOException {
+        allocatedSize();
+        return this.used;
+    }
+
+    // 读出高水位文件；它记下的长度和文件对不上（别人改过文件）就不能信，整个文件都算写过的。
+    // 记下高水位以后可能又写了页，从文件末尾往回找到最后一个非0的字节
+    private long loadHighWater(final long size) throws IOException {
+        if (this.highWaterFile.length() != HIGH_WATER_SIZE) {
+            this.highWaterFile.delete();
+            return size;
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(this.highWaterFile.toPath()));
+        final long allocated = buf.getLong();
+        final long used = buf.getLong();
+        if (allocated != size || used < 0 || used > size) {
+            this.highWaterFile.delete();
+            return size;
+        }
+        this.highWaterOut = new RandomAccessFile(this.highWaterFile, "rw");
+        return lastNonZero(used, size);
+    }
+
+    // 从to往回找，返回from到to之间最后一个非0字节之后的位置，都是0就返回from
+    private long lastNonZero(final long from, long to) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        while (to > from) {
+            final long start = Math.max(from, to - buf.capacity());
+            buf.clear();
+            buf.limit((int) (to - start));
+            final int n = read(buf, start);
+            for (int i = n - 1; i >= 0; i--) {
+                if (buf.get(i) != 0) {
+                    return start + i + 1;
+                }
+            }
+            to = start;
+        }
+        return from;
+    }
+
+    // 预分配过的文件才记高水位，其他文件的高水位就是它的长度
+    private void saveHighWater() throws IOException {
+        if (this.highWaterOut == null) {
+            if (this.used >= this.allocated) {
+                return;
+            }
+            this.highWaterOut = new RandomAccessFile(this.highWaterFile, "rw");
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(HIGH_WATER_SIZE);
+        buf.putLong(this.allocated).putLong(this.used);
+        this.highWaterOut.seek(0);
+        this.highWaterOut.write(buf.array());
+    }
+
+    /**
+     * Looks at the real length of the file again, so that growth by other
+     * writers is seen.
+     *
+     * @return the new length if others made the file longer than this object
+     * knew, or -1
+     */
+    public synchronized long checkExternalGrowth() throws IOException {
+        final long known = allocatedSize();
+        final long size = size();
+        if (size <= known) {
+            return -1;
+        }
+        // 别人直接加长的部分都是写过的
+        this.allocated = size;
+        this.used = size;
+        saveHighWater();
+        return size;
+    }
+
+    // 写到了高水位之后：只在内存中记下新的高水位；写到了已分配的长度之后，下次扩展不能从旧的长度开始补0
+    private void grown(final long end) {
+        if (this.allocated >= 0 && end > this.used) {
+            synchronized (this) {
+                if (end > this.used) {
+                    this.used = end;
+                    this.allocated = Math.max(this.allocated, end);
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the high-water mark of a preallocated file, after a batch of
+     * pages was written.
+     */
+    public synchronized void flush() throws IOException {
+        if (this.allocated >= 0) {
+            saveHighWater();
+        }
+    }
+
+    /**
+     * Cut the file to the given length; bytes after it are given back to the
+     * file system, including preallocated pages.
+     */
+    public synchronized void truncate(final long size) throws IOException {
+        allocatedSize();
+        channel().truncate(size);
+        this.allocated = size;
+        this.used = Math.min(this.used, size);
+        saveHighWater();
+    }
+
+    /**
+     * Returns the current size of the file.
+     */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    public synchronized void close() throws IOException {
+        flush();
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+        if (this.highWaterOut != null) {
+            this.highWaterOut.close();
+            this.highWaterOut = null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb.util;
+
+/**
+ * Adaptive read-ahead window of one sequential reader.
+ * 自适应预读窗口：连续顺序读时窗口翻倍，访问不连续时重新开始
+ * <p>
+ * The reader reports every position it reads (a page number, or the ordinal
+ * of a leaf when following sibling links). While the positions are
+ * consecutive, the reader is asked to prefetch ahead of itself. Each time it
+ * has consumed half of what was prefetched, the window doubles up to the
+ * maximum. A jump to another position drops the window, and read-ahead
+ * restarts from there once access is sequential again.
+ */
+public class ReadAheadWindow {
+
+    private final int maxWindow;
+    private int window;
+    // 上一次读的位置
+    private int last;
+    // 已经预读到的位置（不含）
+    private int prefetchedUntil;
+    // 这一次要预读的第一个位置
+    private int start;
+
+    /**
+     * @param maxWindow the largest number of positions to read ahead; 0 disables read-ahead
+     */
+    public ReadAheadWindow(final int maxWindow) {
+        this.maxWindow = maxWindow;
+        this.window = 0;
+        // 从0开始读本身就是顺序访问
+        this.last = -1;
+        this.prefetchedUntil = 0;
+    }
+
+    /**
+     * Record that the reader reads the given position now.
+     *
+     * @return how many positions to prefetch, starting at {@link #getStart()}; 0 for none
+     */
+    public int access(final int pos) {
+        if (pos != this.last + 1) {
+            this.last = pos;
+            this.window = 0;
+            this.prefetchedUntil = pos + 1;
+            return 0;
+        }
+        this.last = pos;
+        if (this.maxWindow <= 0 || this.prefetchedUntil - (pos + 1) > this.window / 2) {
+            return 0;
+        }
+        // 预读的部分用掉一半了，窗口翻倍，接着往后预读
+        this.window = Math.min(Math.max(this.window * 2, 1), this.maxWindow);
+        this.start = Math.max(this.prefetchedUntil, pos + 1);
+        final int count = pos + 1 + this.window - this.start;
+        if (count <= 0) {
+            return 0;
+        }
+        this.prefetchedUntil = this.start + count;
+        return count;
+    }
+
+    /**
+     * @return the first position to prefetch after {@link #access} returned a positive count
+     */
+    public int getStart() {
+        return this.start;
+    }
+
+    /**
+     * @return how far ahead of pos the reader has asked to prefetch
+     */
+    public int getAhead(final int pos) {
+        return Math.max(0, this.prefetchedUntil - (pos + 1));
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb.util;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Replacement policy used by the BufferPool to choose which page to evict.
+ * 页面置换策略，只负责记录访问信息和挑选牺牲者，不保存页本身
+ * <p>
+ * The page table itself lives in the BufferPool; a policy only tracks keys.
+ * recordAccess is called on every cache hit, so implementations should not
+ * take a shared lock or mutate shared structures there.
+ *
+ * @param <K> the type of the cached keys
+ */
+public interface ReplacementPolicy<K> {
+
+    /**
+     * Called after a new key was added to the cache.
+     */
+    void recordInsert(K key);
+
+    /**
+     * Called on every cache hit.
+     */
+    void recordAccess(K key);
+
+    /**
+     * Called after a key was removed from the cache.
+     */
+    void recordRemove(K key);
+
+    /**
+     * Tells whether the key was accessed since it was inserted, as far as the
+     * policy still remembers; a CLOCK policy forgets an access when its hand
+     * passes the key. Lets a caller that is about to drop a page it loaded
+     * for itself keep it if someone else has used it meanwhile.
+     */
+    boolean isReferenced(K key);
+
+    /**
+     * Select a key to evict.
+     *
+     * @param evictable tells whether a key can be evicted now (e.g. the page is clean)
+     * @return the key to evict, or null if no key is evictable
+     */
+    K selectVictim(Predicate<K> evictable);
+
+    /**
+     * List keys roughly in the order they would be evicted, without changing
+     * any access information. Lets a background writer clean the pages that
+     * are about to become victims first.
+     *
+     * @param max    the largest number of keys to return
+     * @param filter only keys it accepts are listed
+     * @return at most max keys, the next victims first
+     */
+    List<K> peekVictims(int max, Predicate<K> filter);
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferAccessStrategy;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import simpledb.util.ClockReplacementPolicy;
+import simpledb.util.LruReplacementPolicy;
+import simpledb.util.ReplacementPolicy;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class BufferAccessStrategyTest extends SimpleDbTestBase {
+
+    // 扫描经过环读完整个表，第0页在环里时被别的事务用过
+    private static void keepsUsedPages(ReplacementPolicy<PageId> policy, Set<PageId> removed) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        assertEquals(10, hf.numPages());
+        BufferPool pool = new BufferPool(16, policy);
+        BufferAccessStrategy ring = new BufferAccessStrategy(4);
+        TransactionId scan = new TransactionId();
+        TransactionId other = new TransactionId();
+
+        pool.getPage(scan, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY, ring);
+        // 别的事务不走环，命中时记下这一页被用过
+        pool.getPage(other, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        for (int i = 1; i < hf.numPages(); i++) {
+            pool.getPage(scan, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY, ring);
+        }
+        assertFalse(removed.contains(new HeapPageId(hf.getId(), 0)));
+        for (int i = 1; i < hf.numPages() - 4; i++) {
+            assertTrue(removed.contains(new HeapPageId(hf.getId(), i)));
+        }
+        pool.transactionComplete(scan);
+        pool.transactionComplete(other);
+    }
+
+    /**
+     * A scan through a ring drops the pages it displaces, except one that
+     * another transaction used while it was in the ring: that one stays in
+     * the pool. The CLOCK policy tells by the page's reference bit.
+     */
+    @Test public void keepsUsedPagesClock() throws Exception {
+        Set<PageId> removed = ConcurrentHashMap.newKeySet();
+        keepsUsedPages(new ClockReplacementPolicy<PageId>(16) {
+            @Override
+            public synchronized void recordRemove(PageId key) {
+                removed.add(key);
+                super.recordRemove(key);
+            }
+        }, removed);
+    }
+
+    /**
+     * Same with the LRU policy, which tells by the page's access stamp.
+     */
+    @Test public void keepsUsedPagesLru() throws Exception {
+        Set<PageId> removed = ConcurrentHashMap.newKeySet();
+        keepsUsedPages(new LruReplacementPolicy<PageId>() {
+            @Override
+            public void recordRemove(PageId key) {
+                removed.add(key);
+                super.recordRemove(key);
+            }
+        }, removed);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferAccessStrategyTest.class);
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws Exception {
+        File f = File.createTempFile("bulk", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Writes rows of an int, a string and an int, with some blank lines and
+     * Windows line endings thrown in.
+     */
+    private static File writeInput(int rows, Random random) throws Exception {
+        File text = tempFile(".txt");
+        try (Writer w = new FileWriter(text)) {
+            for (int i = 0; i < rows; i++) {
+                w.write(random.nextInt(1000) - 500 + ",name" + i + "," + i + (i % 7 == 0 ? "\r\n" : "\n"));
+                if (i % 1000 == 0) {
+                    w.write("\n");
+                }
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Parsing the input in many chunks with several threads writes the same
+     * heap file as the single-threaded encoder.
+     */
+    @Test public void sameAsEncoder() throws Exception {
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+        File text = writeInput(20000, new Random(1));
+        assertTrue(text.length() > 4 * (1 << 16));
+
+        File expected = tempFile(".dat");
+        HeapFileEncoder.convert(text, expected, BufferPool.getPageSize(), 3, types, ',');
+        File actual = tempFile(".dat");
+        int pages = HeapFileEncoder.convert(text, actual, BufferPool.getPageSize(), types, ',', 4, 1 << 16);
+
+        assertEquals(expected.length() / BufferPool.getPageSize(), pages);
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+    }
+
+    /**
+     * A malformed line is skipped instead of shifting the lines after it.
+     */
+    @Test public void badLineSkipped() throws Exception {
+        File text = tempFile(".txt");
+        try (Writer w = new FileWriter(text)) {
+            w.write("1,2\nx,3\n4\n5,6,7\n8,9\n");
+        }
+        File out = tempFile(".dat");
+        new BulkLoader(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',', 1, 1 << 20).loadHeapFile(text, out, BufferPool.getPageSize());
+        HeapFile hf = new HeapFile(out, new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}));
+        Database.getCatalog().addTable(hf, "bad");
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertEquals(new IntField(2), it.next().getField(1));
+        assertEquals(new IntField(9), it.next().getField(1));
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A B+ tree loaded with a memory budget far smaller than its input, so
+     * the sort spills and merges many runs, holds every row in key order.
+     */
+    @Test public void externalSortBTree() throws Exception {
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+        int rows = 5000;
+        File text = writeInput(rows, new Random(2));
+        File bFile = tempFile(".dat");
+        BTreeFile bf = BTreeFileEncoder.bulkLoad(text, bFile, BufferPool.getPageSize(), types, ',', 0, 2, 1 << 17);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        long sum = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            int i = ((IntField) t.getField(2)).getValue();
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+            sum += i;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows, count);
+        assertEquals((long) rows * (rows - 1) / 2, sum);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.util.ClockReplacementPolicy;
+
+import static org.junit.Assert.*;
+
+public class ClockReplacementPolicyTest {
+
+    /**
+     * Unit test for ClockReplacementPolicy.selectVictim(): a key that was
+     * accessed again gets a second chance.
+     */
+    @Test public void secondChance() {
+        ClockReplacementPolicy<Integer> clock = new ClockReplacementPolicy<>(3);
+        clock.recordInsert(1);
+        clock.recordInsert(2);
+        clock.recordInsert(3);
+        clock.recordAccess(1);
+        clock.recordAccess(3);
+        assertEquals(Integer.valueOf(2), clock.selectVictim(k -> true));
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy.selectVictim(): keys that are not
+     * evictable are skipped, and null is returned when nothing is evictable.
+     */
+    @Test public void skipsUnevictable() {
+        ClockReplacementPolicy<Integer> clock = new ClockReplacementPolicy<>(3);
+        clock.recordInsert(1);
+        clock.recordInsert(2);
+        clock.recordInsert(3);
+        assertEquals(Integer.valueOf(3), clock.selectVictim(k -> k == 3));
+        assertNull(clock.selectVictim(k -> false));
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy.recordRemove(): removed keys are
+     * never returned and their slots are reused, even past the capacity.
+     */
+    @Test public void removeAndGrow() {
+        ClockReplacementPolicy<Integer> clock = new ClockReplacementPolicy<>(2);
+        clock.recordInsert(1);
+        clock.recordInsert(2);
+        clock.recordRemove(1);
+        clock.recordInsert(3);
+        clock.recordInsert(4);
+        clock.recordInsert(5);
+        clock.recordAccess(2);
+        clock.recordAccess(3);
+        clock.recordAccess(4);
+        clock.recordAccess(5);
+        clock.recordRemove(5);
+        Integer victim = clock.selectVictim(k -> true);
+        assertNotNull(victim);
+        assertNotEquals(Integer.valueOf(1), victim);
+        assertNotEquals(Integer.valueOf(5), victim);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClockReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+import simpledb.util.PositionalFile;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".pmap").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Pages written through a compressed file take a fraction of their size on
+     * disk and read back the same after the file is opened again.
+     */
+    @Test public void writeAndReopen() throws Exception {
+        File f = tempFile();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.FIXED, new DeflatePageCodec());
+        Database.getCatalog().addTable(hf, "compressed");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{i, i % 7}));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        int pages = hf.numPages();
+        assertTrue(pages >= 5);
+        assertTrue(f.length() > 0);
+        assertTrue(f.length() * 2 < (long) pages * BufferPool.getPageSize());
+
+        Database.reset();
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.FIXED, new DeflatePageCodec());
+        Database.getCatalog().addTable(reopened, "compressed");
+        assertEquals(pages, reopened.numPages());
+        TransactionId tid2 = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid2);
+        it.open();
+        long sum = 0;
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            sum += ((IntField) t.getField(0)).getValue();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid2);
+        assertEquals(3000, count);
+        assertEquals(2999L * 3000 / 2, sum);
+    }
+
+    /**
+     * A file of plain pages is refused as a compressed table instead of being
+     * read as empty and overwritten, and can be compressed into one.
+     */
+    @Test public void plainFileRefusedAndCompressed() throws Exception {
+        File raw = tempFile();
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            tuples.add(Arrays.asList(i, i % 7));
+        }
+        HeapFileEncoder.convert(tuples, raw, BufferPool.getPageSize(), 2);
+        byte[] before = Files.readAllBytes(raw.toPath());
+        try {
+            new HeapFile(raw, Utility.getTupleDesc(2), HeapPageFormat.FIXED, new DeflatePageCodec());
+            fail("plain file opened as compressed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertArrayEquals(before, Files.readAllBytes(raw.toPath()));
+
+        File f = tempFile();
+        int pages = CompressedPageStore.compress(raw, f, new DeflatePageCodec(), BufferPool.getPageSize());
+        assertEquals(before.length / BufferPool.getPageSize(), pages);
+        assertTrue(f.length() < before.length);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.FIXED, new DeflatePageCodec());
+        Database.getCatalog().addTable(hf, "compressed");
+        assertEquals(pages, hf.numPages());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, count);
+    }
+
+    /**
+     * A page that grows past its block moves to a new one; a page the codec
+     * cannot shrink is stored raw.
+     */
+    @Test public void blocksGrow() throws Exception {
+        File f = tempFile();
+        int pageSize = BufferPool.getPageSize();
+        CompressedPageStore store = new CompressedPageStore(new PositionalFile(f),
+                new File(f.getPath() + ".pmap"), new DeflatePageCodec(), pageSize);
+        byte[] empty = new byte[pageSize];
+        byte[] random = new byte[pageSize];
+        new Random(7).nextBytes(random);
+
+        store.write(0, empty);
+        store.write(1, empty);
+        long small = f.length();
+        store.write(0, random);
+        assertTrue(f.length() >= small + pageSize);
+        assertArrayEquals(random, store.read(0));
+        assertArrayEquals(empty, store.read(1));
+        assertArrayEquals(empty, store.read(5));
+        assertEquals(2, store.numPages());
+    }
+
+    /**
+     * Blocks left behind by pages that were rewritten smaller hold the pages
+     * written next, so the data file does not grow, also after the store is
+     * opened again.
+     */
+    @Test public void blocksReused() throws Exception {
+        File f = tempFile();
+        File map = new File(f.getPath() + ".pmap");
+        int pageSize = BufferPool.getPageSize();
+        CompressedPageStore store = new CompressedPageStore(new PositionalFile(f), map, new DeflatePageCodec(), pageSize);
+        Random rand = new Random(11);
+        // 前一半是随机字节，压缩以后差不多还是半页
+        byte[] large = new byte[pageSize];
+        byte[] noise = new byte[pageSize / 2];
+        rand.nextBytes(noise);
+        System.arraycopy(noise, 0, large, 0, noise.length);
+        byte[] small = new byte[pageSize];
+        small[0] = 1;
+
+        for (int i = 0; i < 4; i++) {
+            store.write(i, large);
+        }
+        long length = f.length();
+        for (int i = 0; i < 4; i++) {
+            store.write(i, small);
+        }
+        for (int i = 4; i < 7; i++) {
+            store.write(i, large);
+        }
+        assertTrue(f.length() <= length + 1024);
+        store.close();
+
+        // 重新打开以后从块之间的空隙里找回空闲空间
+        store = new CompressedPageStore(new PositionalFile(f), map, new DeflatePageCodec(), pageSize);
+        store.write(4, small);
+        store.write(7, large);
+        assertTrue(f.length() <= length + 1024);
+        for (int i = 0; i < 8; i++) {
+            assertArrayEquals(i < 5 ? small : large, store.read(i));
+        }
+        store.close();
+    }
+
+    /**
+     * A write puts the new block beside the old one, so if the map entry
+     * never reached the disk the old version of the page is still read.
+     */
+    @Test public void oldBlockSurvivesLostMapWrite() throws Exception {
+        File f = tempFile();
+        File map = new File(f.getPath() + ".pmap");
+        int pageSize = BufferPool.getPageSize();
+        CompressedPageStore store = new CompressedPageStore(new PositionalFile(f), map, new DeflatePageCodec(), pageSize);
+        byte[] before = new byte[pageSize];
+        Arrays.fill(before, 0, 100, (byte) 1);
+        byte[] after = new byte[pageSize];
+        Arrays.fill(after, 0, 100, (byte) 2);
+        store.write(0, before);
+        byte[] savedMap = Files.readAllBytes(map.toPath());
+        store.write(0, after);
+        store.close();
+
+        Files.write(map.toPath(), savedMap);
+        store = new CompressedPageStore(new PositionalFile(f), map, new DeflatePageCodec(), pageSize);
+        assertArrayEquals(before, store.read(0));
+        store.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.IoMode;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HeapFileMmapTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID(), "", IoMode.MMAP);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * A mapped table reads the same tuples, and keeps working after it grows.
+     */
+    @Test public void readAndGrow() throws Exception {
+        assertEquals(IoMode.MMAP, hf.getIoMode());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{i, i}));
+            tuples.add(Arrays.asList(i, i));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A tuple read from a mapped page keeps its values after the page is
+     * written back with other contents, even if none of its fields had been
+     * looked at before the write.
+     */
+    @Test public void tupleSurvivesPageWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        int pageSize = BufferPool.getPageSize();
+        Tuple held;
+        // 直接在映射上建页，不经过readPage（读页时区域映射会把行都解析掉）
+        try (FileChannel ch = FileChannel.open(hf.getFile().toPath(), StandardOpenOption.READ)) {
+            held = new HeapPage(pid, ch.map(FileChannel.MapMode.READ_ONLY, 0, pageSize)).iterator().next();
+        }
+
+        HeapPage other = new HeapPage(pid, HeapPage.createEmptyPageData());
+        other.insertTuple(Utility.getHeapTuple(new int[]{-1, -2}));
+        hf.writePage(other);
+
+        List<Integer> first = tuples.get(0);
+        assertEquals((int) first.get(0), ((IntField) held.getField(0)).getValue());
+        assertEquals((int) first.get(1), ((IntField) held.getField(1)).getValue());
+        Tuple reread = ((HeapPage) hf.readPage(pid)).iterator().next();
+        assertEquals(-1, ((IntField) reread.getField(0)).getValue());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileMmapTest.class);
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Vacuum;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HeapFileVacuumTest extends SimpleDbTestBase {
+
+    // 表中每个第一列的值出现的次数
+    private static Map<Integer, Integer> contents(HeapFile hf) throws Exception {
+        Map<Integer, Integer> counts = new HashMap<>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            counts.merge(((IntField) it.next().getField(0)).getValue(), 1, Integer::sum);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return counts;
+    }
+
+    /**
+     * After most rows are deleted, vacuum moves the rest to the front of the
+     * file and cuts off the emptied pages, keeping every live row.
+     */
+    @Test public void shrinksToLiveData() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        int pages = hf.numPages();
+        assertTrue(pages > 8);
+
+        // 删掉第一列不是5的倍数的行
+        BufferPool pool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        List<Tuple> dead = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 5 != 0) {
+                dead.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : dead) {
+            pool.deleteTuple(tid, t);
+        }
+        pool.transactionComplete(tid, true);
+        Map<Integer, Integer> expected = contents(hf);
+
+        // 整理之前打开的扫描也能读完
+        TransactionId reader = new TransactionId();
+        DbFileIterator before = hf.iterator(reader);
+        before.open();
+
+        assertEquals(2, Vacuum.vacuum(hf, 2));
+        assertEquals(pages - 2, hf.numPages());
+        int removed = Vacuum.vacuum(hf, Integer.MAX_VALUE);
+        // 挪不动时最多比塞满多出一页
+        int live = expected.values().stream().mapToInt(Integer::intValue).sum();
+        assertTrue(hf.numPages() <= live / (5000 / pages) + 2);
+        assertTrue(hf.numPages() < pages / 2);
+        assertEquals(pages - 2 - removed, hf.numPages());
+        assertEquals((long) hf.numPages() * BufferPool.getPageSize(), hf.getFile().length());
+        assertEquals(expected, contents(hf));
+
+        int count = 0;
+        while (before.hasNext()) {
+            before.next();
+            count++;
+        }
+        before.close();
+        pool.transactionComplete(reader);
+        assertEquals(expected.values().stream().mapToInt(Integer::intValue).sum(), count);
+
+        // 截短以后还能正常插入
+        tid = new TransactionId();
+        pool.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{7, 7}));
+        pool.transactionComplete(tid, true);
+        expected.merge(7, 1, Integer::sum);
+        assertEquals(expected, contents(hf));
+    }
+
+    /**
+     * A snapshot begun before vacuum still sees every row: the emptied pages
+     * are only cut off once it has ended.
+     */
+    @Test public void waitsForOlderSnapshots() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, null, new ArrayList<>());
+        int pages = hf.numPages();
+        BufferPool pool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        List<Tuple> dead = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 4 != 0) {
+                dead.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : dead) {
+            pool.deleteTuple(tid, t);
+        }
+        pool.transactionComplete(tid, true);
+        Map<Integer, Integer> expected = contents(hf);
+
+        Transaction snapshot = new Transaction(true);
+        snapshot.start();
+        assertEquals(0, Vacuum.vacuum(hf, Integer.MAX_VALUE));
+        assertEquals(pages, hf.numPages());
+        Map<Integer, Integer> seen = new HashMap<>();
+        it = hf.iterator(snapshot.getId());
+        it.open();
+        while (it.hasNext()) {
+            seen.merge(((IntField) it.next().getField(0)).getValue(), 1, Integer::sum);
+        }
+        it.close();
+        snapshot.commit();
+        assertEquals(expected, seen);
+
+        assertTrue(Vacuum.vacuum(hf, Integer.MAX_VALUE) > 0);
+        assertTrue(hf.numPages() < pages);
+        assertEquals(expected, contents(hf));
+    }
+
+    /**
+     * A last page whose tuples do not all fit in earlier pages is left as it
+     * was: none of its tuples are moved.
+     */
+    @Test public void movesWholePagesOnly() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2 * 504 + 10, null, new ArrayList<>());
+        assertEquals(3, hf.numPages());
+        BufferPool pool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 5; i++) {
+            pool.deleteTuple(tid, it.next());
+        }
+        it.close();
+        pool.transactionComplete(tid, true);
+        Map<Integer, Integer> expected = contents(hf);
+
+        assertEquals(0, Vacuum.vacuum(hf, Integer.MAX_VALUE));
+        assertEquals(3, hf.numPages());
+        assertEquals(expected, contents(hf));
+        // 最后一页的行一行都没挪
+        tid = new TransactionId();
+        it = hf.iterator(tid);
+        it.open();
+        int onLast = 0;
+        while (it.hasNext()) {
+            if (it.next().getRecordId().getPageId().getPageNumber() == 2) {
+                onLast++;
+            }
+        }
+        it.close();
+        pool.transactionComplete(tid);
+        assertEquals(10, onLast);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileVacuumTest.class);
+    }
+}
@@ -11,8 +11,15 @@ import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
+import simpledb.util.PositionalFile;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -50,6 +57,23 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts go to a page with room without locking the full pages before it.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId tid2 = new TransactionId();
+        List<Page> dirty = empty.insertTuple(tid2, Utility.getHeapTuple(0, 2));
+        assertEquals(1, dirty.get(0).getId().getPageNumber());
+        assertFalse(Database.getBufferPool().holdsLock(tid2, new HeapPageId(empty.getId(), 0)));
+        Database.getBufferPool().transactionComplete(tid2);
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -90,6 +114,131 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.writePages(): pages given out of order, with a
+     * gap between them, all land at their own offsets.
+     */
+    @Test public void writePages() throws Exception {
+        HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null, null);
+        int tableId = smallFile.getId();
+        HeapPage[] pages = new HeapPage[5];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new HeapPage(new HeapPageId(tableId, i), HeapPage.createEmptyPageData());
+            for (int j = 0; j <= i; j++) {
+                pages[i].insertTuple(Utility.getHeapTuple(i, 2));
+            }
+        }
+        smallFile.writePages(Arrays.asList(pages[4], pages[1], pages[0], pages[3]));
+        assertEquals(5, smallFile.numPages());
+        for (int i : new int[]{0, 1, 3, 4}) {
+            Iterator<Tuple> it = ((HeapPage) smallFile.readPage(new HeapPageId(tableId, i))).iterator();
+            int count = 0;
+            while (it.hasNext()) {
+                assertEquals(i, ((IntField) it.next().getField(0)).getValue());
+                count++;
+            }
+            assertEquals(i + 1, count);
+        }
+        // 空闲空间表和页一起成批写出，重新打开还是每页自己的数
+        FreeSpaceMap fsm = new FreeSpaceMap(new File(smallFile.getFile().getPath() + ".fsm"), smallFile.getFile());
+        for (int i : new int[]{0, 1, 3, 4}) {
+            assertEquals(Math.min(254, pages[i].getNumEmptySlots()), fsm.getFreeSlots(i));
+        }
+        assertEquals(-1, fsm.getFreeSlots(2));
+        // 数据文件被别人改过（长度变了），旧的空闲空间表作废
+        try (FileOutputStream out = new FileOutputStream(smallFile.getFile(), true)) {
+            out.write(HeapPage.createEmptyPageData());
+        }
+        fsm = new FreeSpaceMap(new File(smallFile.getFile().getPath() + ".fsm"), smallFile.getFile());
+        assertEquals(-1, fsm.getFreeSlots(0));
+    }
+
+    /**
+     * A new page is allocated from a preallocated extent; the unused rest of
+     * the extent is not counted as pages of the table, not even after the
+     * file is opened again.
+     */
+    @Test public void growsByExtents() throws Exception {
+        empty.setExtentPages(4);
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        assertEquals(5L * BufferPool.getPageSize(), empty.getFile().length());
+
+        Database.getBufferPool().flushAllPages();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(2, reopened.numPages());
+        Iterator<Tuple> it = ((HeapPage) reopened.readPage(new HeapPageId(empty.getId(), 1))).iterator();
+        assertTrue(it.hasNext());
+        it.next();
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Appending pages moves the high-water mark in memory only; it is saved
+     * when the file is flushed, and a file opened before that finds the
+     * written pages again from the end of the file.
+     */
+    @Test public void highWaterMarkSavedOnFlush() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        File f = File.createTempFile("hwm", ".dat");
+        f.deleteOnExit();
+        File side = new File(f.getPath() + ".hwm");
+        side.deleteOnExit();
+        PositionalFile pf = new PositionalFile(f);
+        pf.ensureSize(pageSize, 4L * pageSize, 0, pageSize);
+        assertEquals(0, pf.usedSize());
+        long saved = side.lastModified();
+        byte[] saw = Files.readAllBytes(side.toPath());
+
+        byte[] data = HeapPage.createEmptyPageData();
+        data[0] = 1;
+        pf.write(ByteBuffer.wrap(data), 0);
+        assertEquals(pageSize, pf.usedSize());
+        assertArrayEquals(saw, Files.readAllBytes(side.toPath()));
+        assertEquals(saved, side.lastModified());
+        assertEquals(1, (new PositionalFile(f).usedSize() + pageSize - 1) / pageSize);
+
+        // 写了一页0，只有记下了高水位才知道它写过
+        pf.write(ByteBuffer.wrap(HeapPage.createEmptyPageData()), pageSize);
+        pf.flush();
+        assertEquals(2L * pageSize, new PositionalFile(f).usedSize());
+        assertEquals(4L * pageSize, f.length());
+        pf.close();
+    }
+
+    /**
+     * Which preallocated pages are unused is not told by the page data, so a
+     * written page holding any bytes at all is kept and read back as written.
+     */
+    @Test public void writtenPagesNeverLookUnused() throws Exception {
+        empty.setExtentPages(4);
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().flushAllPages();
+        byte[] data = HeapPage.createEmptyPageData();
+        byte[] header = "SDBUNUSD".getBytes("US-ASCII");
+        System.arraycopy(header, 0, data, 0, header.length);
+        int used = 0;
+        for (byte b : header) {
+            used += Integer.bitCount(b & 0xff);
+        }
+        HeapPageId pid = new HeapPageId(empty.getId(), 1);
+        empty.writePage(new HeapPage(pid, data));
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(2, reopened.numPages());
+        Iterator<Tuple> it = ((HeapPage) reopened.readPage(pid)).iterator();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(used, count);
+    }
+
     /**
      * JUnit suite target
      */
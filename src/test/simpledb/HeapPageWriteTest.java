@@ -14,6 +14,7 @@ import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +132,34 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Modifying a page leaves the bytes it was created from and tuples read
+     * before the change intact, and iteration skips emptied slots.
+     */
+    @Test public void copyOnWrite() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        byte[] before = page.getPageData();
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        Tuple second = it.next();
+
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(-1, 2));
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, before);
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][0], ((IntField) second.getField(0)).getValue());
+
+        page.deleteTuple(second);
+        int count = 0;
+        it = page.iterator();
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count++;
+        }
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length - 1, count);
+    }
+
     /**
      * JUnit suite target
      */
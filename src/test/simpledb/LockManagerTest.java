@@ -0,0 +1,251 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DeadlockException;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.Lock;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionId;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest {
+
+    private LockManager lm;
+    private HeapPageId p0;
+    private HeapPageId p1;
+    private TransactionId tid1;
+    private TransactionId tid2;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(-1, 0);
+        p1 = new HeapPageId(-1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * A waiter parks until the holder releases, and is then granted the lock.
+     */
+    @Test public void waiterGrantedOnRelease() throws Exception {
+        lm.acquireLock(p0, tid1, Lock.EXCLUSIVE);
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(p0, tid2, Lock.SHARED);
+            } catch (DeadlockException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        assertTrue(t.isAlive());
+        assertFalse(lm.holdsLock(p0, tid2));
+        lm.releaseLock(p0, tid1);
+        t.join(1000);
+        assertFalse(t.isAlive());
+        assertTrue(lm.holdsLock(p0, tid2));
+    }
+
+    /**
+     * An interrupted waiter leaves the queue and fails instead of returning
+     * without the lock, and keeps its interrupt flag.
+     */
+    @Test public void interruptedWaiterFails() throws Exception {
+        lm.acquireLock(p0, tid1, Lock.EXCLUSIVE);
+        final boolean[] result = new boolean[2];
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(p0, tid2, Lock.SHARED);
+            } catch (DeadlockException e) {
+                result[0] = true;
+                result[1] = Thread.currentThread().isInterrupted();
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        t.interrupt();
+        t.join(1000);
+        assertFalse(t.isAlive());
+        assertTrue(result[0]);
+        assertTrue(result[1]);
+        assertFalse(lm.holdsLock(p0, tid2));
+        // 离开队列以后不会再挡住别人
+        lm.releaseLock(p0, tid1);
+        assertTrue(lm.tryAcquireLock(p0, tid1, Lock.EXCLUSIVE, 0));
+    }
+
+    /**
+     * A request that cannot be granted at once fails with a zero timeout.
+     */
+    @Test public void noWait() throws Exception {
+        lm.acquireLock(p0, tid1, Lock.SHARED);
+        assertTrue(lm.tryAcquireLock(p0, tid2, Lock.SHARED, 0));
+        assertFalse(lm.tryAcquireLock(p0, tid2, Lock.EXCLUSIVE, 0));
+        lm.releaseLock(p0, tid1);
+        assertTrue(lm.tryAcquireLock(p0, tid2, Lock.EXCLUSIVE, 0));
+    }
+
+    /**
+     * Two transactions locking two pages in opposite order: the youngest one
+     * is aborted with a DeadlockException and the other one proceeds.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        lm.acquireLock(p0, tid1, Lock.EXCLUSIVE);
+        lm.acquireLock(p1, tid2, Lock.EXCLUSIVE);
+        final boolean[] granted = new boolean[1];
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(p1, tid1, Lock.EXCLUSIVE);
+                granted[0] = true;
+            } catch (DeadlockException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquireLock(p0, tid2, Lock.EXCLUSIVE);
+            fail("expected a deadlock");
+        } catch (DeadlockException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 500);
+        lm.releaseLockByTxn(tid2);
+        t.join(1000);
+        assertTrue(granted[0]);
+    }
+
+    /**
+     * getLockedPages() tracks exactly the pages a transaction holds, and
+     * releaseLockByTxn() releases all of them.
+     */
+    @Test public void lockedPages() throws Exception {
+        lm.acquireLock(p0, tid1, Lock.SHARED);
+        lm.acquireLock(p1, tid1, Lock.EXCLUSIVE);
+        lm.acquireLock(p0, tid2, Lock.SHARED);
+        assertEquals(2, lm.getLockedPages(tid1).size());
+        assertTrue(lm.getLockedPages(tid1).contains(p1));
+        assertEquals(1, lm.getLockedPages(tid2).size());
+        lm.releaseLockByTxn(tid1);
+        assertTrue(lm.getLockedPages(tid1).isEmpty());
+        assertFalse(lm.holdsLock(p1, tid1));
+        assertTrue(lm.holdsLock(p0, tid2));
+    }
+
+    /**
+     * Past the escalation threshold, page locks are traded for a table lock
+     * that covers every page of the table.
+     */
+    @Test public void escalation() throws Exception {
+        lm.setEscalationThreshold(2);
+        for (int i = 0; i < 3; i++) {
+            lm.acquireLock(new HeapPageId(-1, i), tid1, Lock.SHARED);
+        }
+        assertTrue(lm.getLockedPages(tid1).isEmpty());
+        assertTrue(lm.holdsLock(new HeapPageId(-1, 10), tid1));
+        // readers are still compatible with the table S lock, writers are not
+        assertTrue(lm.tryAcquireLock(new HeapPageId(-1, 10), tid2, Lock.SHARED, 0));
+        assertFalse(lm.tryAcquireLock(new HeapPageId(-1, 11), tid2, Lock.EXCLUSIVE, 0));
+        lm.releaseLockByTxn(tid1);
+        assertTrue(lm.tryAcquireLock(new HeapPageId(-1, 11), tid2, Lock.EXCLUSIVE, 0));
+    }
+
+    /**
+     * Escalation does not happen while another transaction holds a
+     * conflicting intention lock on the table.
+     */
+    @Test public void noEscalationUnderConflict() throws Exception {
+        lm.setEscalationThreshold(2);
+        lm.acquireLock(new HeapPageId(-1, 10), tid2, Lock.EXCLUSIVE);
+        for (int i = 0; i < 3; i++) {
+            lm.acquireLock(new HeapPageId(-1, i), tid1, Lock.SHARED);
+        }
+        assertEquals(3, lm.getLockedPages(tid1).size());
+        assertFalse(lm.holdsLock(new HeapPageId(-1, 10), tid1));
+    }
+
+    /**
+     * Locks already held are granted again without the latch guarding the
+     * lock table: while the latch is held elsewhere, several threads each
+     * keep hitting their own page and table locks, and only a request for a
+     * new lock has to wait for the latch.
+     */
+    @Test public void heldLocksSkipLatch() throws Exception {
+        final int threads = 4;
+        final TransactionId[] tids = new TransactionId[threads];
+        for (int i = 0; i < threads; i++) {
+            tids[i] = new TransactionId();
+            lm.acquireLock(p0, tids[i], Lock.SHARED);
+        }
+        // 第一个事务另外持有整表的写锁，覆盖表上所有页
+        lm.acquireTableLock(-2, tids[0], Lock.EXCLUSIVE);
+
+        final Field field = LockManager.class.getDeclaredField("latch");
+        field.setAccessible(true);
+        final ReentrantLock latch = (ReentrantLock) field.get(lm);
+        latch.lock();
+        try {
+            final Thread[] hitters = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                final TransactionId tid = tids[i];
+                final boolean table = i == 0;
+                hitters[i] = new Thread(() -> {
+                    try {
+                        for (int n = 0; n < 100000; n++) {
+                            lm.acquireLock(p0, tid, Lock.SHARED);
+                            if (table) {
+                                lm.acquireLock(new HeapPageId(-2, n), tid, Lock.EXCLUSIVE);
+                            }
+                        }
+                    } catch (DeadlockException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                hitters[i].start();
+            }
+            for (Thread t : hitters) {
+                t.join(10000);
+                assertFalse(t.isAlive());
+            }
+
+            // 没持有的锁要拿latch，只能等着
+            Thread miss = new Thread(() -> {
+                try {
+                    lm.acquireLock(p1, tids[1], Lock.SHARED);
+                } catch (DeadlockException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            miss.start();
+            Thread.sleep(100);
+            assertTrue(miss.isAlive());
+            latch.unlock();
+            miss.join(1000);
+            assertFalse(miss.isAlive());
+        } finally {
+            if (latch.isHeldByCurrentThread()) {
+                latch.unlock();
+            }
+        }
+        assertTrue(lm.holdsLock(p1, tids[1]));
+        for (TransactionId tid : tids) {
+            assertTrue(lm.holdsLock(p0, tid));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
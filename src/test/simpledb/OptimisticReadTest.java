@@ -0,0 +1,110 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class OptimisticReadTest {
+
+    private HeapPageId p0;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        Database.reset();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20, null, new ArrayList<>());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        p0 = new HeapPageId(f.getId(), 0);
+    }
+
+    /**
+     * A read-only transaction reads without locks, and validates as long as
+     * nobody writes what it read.
+     */
+    @Test public void readsWithoutLocks() throws Exception {
+        Transaction t = Transaction.readOnly();
+        t.start();
+        bp.getPage(t.getId(), p0, Permissions.READ_ONLY);
+        assertFalse(bp.holdsLock(t.getId(), p0));
+
+        TransactionId other = new TransactionId();
+        bp.getPage(other, p0, Permissions.READ_ONLY);
+        bp.transactionComplete(other, true);
+        assertTrue(t.validate());
+        t.commit();
+    }
+
+    /**
+     * Validation fails once a writer has locked a page the reader read.
+     */
+    @Test public void writeInvalidatesRead() throws Exception {
+        Transaction t = Transaction.readOnly();
+        t.start();
+        bp.getPage(t.getId(), p0, Permissions.READ_ONLY);
+
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, p0, Permissions.READ_WRITE);
+        assertFalse(t.validate());
+        bp.transactionComplete(writer, true);
+        assertFalse(t.validate());
+        t.abort();
+    }
+
+    /**
+     * A page that is being written is read under a shared lock instead, which
+     * waits for the writer; what is read that way needs no validation.
+     */
+    @Test public void fallBackToLocking() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, p0, Permissions.READ_WRITE);
+
+        Transaction t = Transaction.readOnly();
+        t.start();
+        Thread reader = new Thread(() -> {
+            try {
+                bp.getPage(t.getId(), p0, Permissions.READ_ONLY);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+        Thread.sleep(100);
+        assertTrue(reader.isAlive());
+
+        bp.transactionComplete(writer, true);
+        reader.join(1000);
+        assertFalse(reader.isAlive());
+        assertTrue(bp.holdsLock(t.getId(), p0));
+        assertTrue(t.validate());
+        t.commit();
+    }
+
+    @Test(expected = DbException.class) public void cannotWrite() throws Exception {
+        Transaction t = Transaction.readOnly();
+        t.start();
+        try {
+            bp.getPage(t.getId(), p0, Permissions.READ_WRITE);
+        } finally {
+            t.abort();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticReadTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PageArenaTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        Database.getBufferPool().setPageArena(null);
+    }
+
+    private static byte[] image(int b) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Arrays.fill(data, (byte) b);
+        return data;
+    }
+
+    /**
+     * Pages put in the arena are taken out once, and the oldest page is
+     * dropped when the arena is full.
+     */
+    @Test public void putTakeAndEvict() {
+        PageArena arena = new PageArena(3L * BufferPool.getPageSize());
+        assertEquals(3, arena.getNumFrames());
+        for (int i = 0; i < 4; i++) {
+            arena.put(new HeapPageId(1, i), image(i));
+        }
+        assertEquals(3, arena.size());
+        assertFalse(arena.contains(new HeapPageId(1, 0)));
+        assertArrayEquals(image(2), arena.take(new HeapPageId(1, 2)));
+        assertNull(arena.take(new HeapPageId(1, 2)));
+
+        arena.put(new HeapPageId(1, 5), image(5));
+        arena.remove(new HeapPageId(1, 1));
+        assertEquals(2, arena.size());
+        assertArrayEquals(image(5), arena.take(new HeapPageId(1, 5)));
+        assertArrayEquals(image(3), arena.take(new HeapPageId(1, 3)));
+        assertEquals(0, arena.size());
+    }
+
+    private static byte[] image(int b, int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) b);
+        return data;
+    }
+
+    /**
+     * Pages of other sizes than a frame are kept too: a larger page takes
+     * several frames, and enough old pages are dropped to make room for it.
+     */
+    @Test public void mixedPageSizes() {
+        int frame = 1024;
+        PageArena arena = new PageArena(4L * frame, frame);
+        arena.put(new HeapPageId(1, 0), image(1, frame / 2));
+        arena.put(new HeapPageId(2, 0), image(2, 2 * frame));
+        arena.put(new HeapPageId(1, 1), image(3, frame / 2));
+        assertEquals(3, arena.size());
+
+        // 还剩0个页框，放一个占两个页框的页要淘汰最早的两页
+        arena.put(new HeapPageId(2, 1), image(4, 2 * frame));
+        assertFalse(arena.contains(new HeapPageId(1, 0)));
+        assertFalse(arena.contains(new HeapPageId(2, 0)));
+        assertArrayEquals(image(3, frame / 2), arena.take(new HeapPageId(1, 1)));
+        assertArrayEquals(image(4, 2 * frame), arena.take(new HeapPageId(2, 1)));
+
+        arena.put(new HeapPageId(3, 0), image(5, 5 * frame));
+        assertFalse(arena.contains(new HeapPageId(3, 0)));
+    }
+
+    private static int count(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * A pool smaller than the table keeps the pages it evicts in the arena,
+     * and later scans read them back, including committed changes.
+     */
+    @Test public void poolSpillsToArena() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+        assertTrue(hf.numPages() > 4);
+        BufferPool pool = Database.resetBufferPool(2);
+        PageArena arena = new PageArena(64L * BufferPool.getPageSize());
+        pool.setPageArena(arena);
+
+        assertEquals(3000, count(hf));
+        assertTrue(arena.size() > 0);
+
+        TransactionId tid = new TransactionId();
+        pool.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        pool.transactionComplete(tid, true);
+        assertEquals(3001, count(hf));
+        assertEquals(3001, count(hf));
+    }
+
+    /**
+     * A table with its own, larger page size spills to the arena as well.
+     */
+    @Test public void poolSpillsLargePages() throws Exception {
+        File f = File.createTempFile("arena", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.FIXED, null, 4 * BufferPool.getPageSize());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{i, i}));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertTrue(hf.numPages() > 2);
+
+        BufferPool pool = Database.resetBufferPool(2);
+        PageArena arena = new PageArena(64L * BufferPool.getPageSize());
+        pool.setPageArena(arena);
+        assertEquals(5000, count(hf));
+        assertTrue(arena.size() > 0);
+        assertEquals(5000, count(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
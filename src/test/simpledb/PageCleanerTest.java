@@ -0,0 +1,117 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class PageCleanerTest {
+
+    private HeapFile f;
+    private HeapPageId p0;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        Database.reset();
+        f = SystemTestUtil.createRandomHeapFile(2, 20, null, new ArrayList<>());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setForceAtCommit(false);
+        p0 = new HeapPageId(f.getId(), 0);
+    }
+
+    @After public void tearDown() {
+        bp.stopPageCleaner();
+    }
+
+    private int countOnDisk() {
+        return count(((HeapPage) f.readPage(p0)).iterator());
+    }
+
+    private static int count(Iterator<Tuple> it) {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Without FORCE, a commit leaves the page to the cleaner, which writes it
+     * in the background.
+     */
+    @Test public void cleanerWritesCommittedPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(7, 2));
+        bp.transactionComplete(tid, true);
+        assertEquals(1, bp.getUnwrittenCount());
+        assertEquals(20, countOnDisk());
+
+        bp.startPageCleaner(0, 0.5, 1000);
+        for (int i = 0; i < 50 && bp.getUnwrittenCount() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, bp.getUnwrittenCount());
+        assertEquals(21, countOnDisk());
+    }
+
+    /**
+     * Aborting a transaction restores the last committed version of a page,
+     * even when that version is not on disk yet.
+     */
+    @Test public void abortKeepsUnwrittenCommit() throws Exception {
+        TransactionId t1 = new TransactionId();
+        bp.insertTuple(t1, f.getId(), Utility.getHeapTuple(7, 2));
+        bp.transactionComplete(t1, true);
+
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t2, f.getId(), Utility.getHeapTuple(8, 2));
+        bp.transactionComplete(t2, false);
+
+        TransactionId t3 = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(t3, p0, Permissions.READ_ONLY);
+        assertEquals(21, count(page.iterator()));
+        bp.transactionComplete(t3, true);
+    }
+
+    /**
+     * Evicting a page whose committed changes are not on disk writes it first.
+     */
+    @Test public void evictionWritesBack() throws Exception {
+        bp = Database.resetBufferPool(1);
+        bp.setForceAtCommit(false);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 20, null, new ArrayList<>());
+
+        TransactionId t1 = new TransactionId();
+        bp.insertTuple(t1, f.getId(), Utility.getHeapTuple(7, 2));
+        bp.transactionComplete(t1, true);
+
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t2, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+        bp.transactionComplete(t2, true);
+        assertEquals(0, bp.getUnwrittenCount());
+        assertEquals(21, countOnDisk());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
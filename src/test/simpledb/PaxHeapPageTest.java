@@ -0,0 +1,104 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+    }
+
+    private Tuple tuple(int a, String b, int c) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(b, Type.STRING_LEN));
+        t.setField(2, new IntField(c));
+        return t;
+    }
+
+    /**
+     * Each column is stored in its own minipage, and tuples read back the
+     * values that went in.
+     */
+    @Test public void columnLayout() throws Exception {
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, td), "pax");
+        HeapPageId pid = new HeapPageId(-1, 0);
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        page.insertTuple(tuple(1, "one", 10));
+        page.insertTuple(tuple(2, "two", 20));
+
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int header = (slots + 7) / 8;
+        assertEquals(1, data.getInt(header));
+        assertEquals(2, data.getInt(header + 4));
+        int third = header + slots * (4 + Type.STRING_TYPE.getLen());
+        assertEquals(10, data.getInt(third));
+        assertEquals(20, data.getInt(third + 4));
+
+        Iterator<Tuple> it = new PaxHeapPage(pid, data.array()).iterator();
+        Tuple t = it.next();
+        assertEquals(new IntField(10), t.getField(2));
+        assertEquals(new StringField("one", Type.STRING_LEN), t.getField(1));
+        page.deleteTuple(t);
+        assertEquals(slots - 1, page.getNumEmptySlots());
+        assertTrue(page.getBeforeImage() instanceof PaxHeapPage);
+    }
+
+    /**
+     * A text file converted to PAX pages scans back as the same tuples.
+     */
+    @Test public void convertAndScan() throws Exception {
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        try (Writer w = new FileWriter(text)) {
+            for (int i = 0; i < 500; i++) {
+                w.write(i + ",name" + i + "," + (i * 3) + "\n");
+            }
+        }
+        File out = File.createTempFile("pax", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convertToPax(text, out, BufferPool.getPageSize(), 3, new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE}, ',');
+
+        HeapFile hf = new HeapFile(out, td, HeapPageFormat.PAX);
+        Database.getCatalog().addTable(hf, "pax_file");
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int a = ((IntField) t.getField(0)).getValue();
+            assertEquals(new IntField(a * 3), t.getField(2));
+            assertEquals(new StringField("name" + a, Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(500, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
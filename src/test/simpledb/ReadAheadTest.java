@@ -0,0 +1,71 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import simpledb.util.ReadAheadWindow;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /**
+     * The window doubles while access is sequential and starts over after a jump.
+     */
+    @Test public void windowGrowsAndResets() {
+        ReadAheadWindow w = new ReadAheadWindow(8);
+        assertEquals(1, w.access(0));
+        assertEquals(1, w.getStart());
+        assertEquals(2, w.access(1));
+        assertEquals(2, w.getStart());
+        assertEquals(3, w.access(2));
+        assertEquals(4, w.getStart());
+        assertEquals(0, w.access(3));
+
+        assertEquals(0, w.access(100));
+        assertEquals(1, w.access(101));
+        assertEquals(102, w.getStart());
+    }
+
+    @Test public void windowIsBounded() {
+        ReadAheadWindow w = new ReadAheadWindow(4);
+        for (int i = 0; i < 100; i++) {
+            w.access(i);
+            assertTrue(w.getAhead(i) <= 4);
+        }
+    }
+
+    /**
+     * getPage of a page being prefetched returns the one cached copy, whether
+     * or not the prefetch has finished; a page past the end is ignored.
+     */
+    @Test public void prefetchLoadsPage() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, null, new ArrayList<>());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(f.getId(), 1);
+        bp.prefetch(pid, null);
+        bp.prefetch(new HeapPageId(f.getId(), 10000), null);
+
+        TransactionId tid = new TransactionId();
+        Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertSame(page, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
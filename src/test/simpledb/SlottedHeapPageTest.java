@@ -0,0 +1,195 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, new String[]{"id", "name"});
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, td), "slotted");
+        pid = new HeapPageId(-1, 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i, int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append((char) ('a' + (i + sb.length()) % 26));
+        }
+        return sb.toString();
+    }
+
+    private static Map<Integer, String> contents(TuplePage page) {
+        Map<Integer, String> contents = new HashMap<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            contents.put(t.getRecordId().getTupleNumber(),
+                    ((IntField) t.getField(0)).getValue() + ":" + ((StringField) t.getField(1)).getValue());
+        }
+        return contents;
+    }
+
+    /**
+     * Short strings take only their own bytes, so a page holds several times
+     * more tuples than with fixed-size slots.
+     */
+    @Test public void holdsShortTuples() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData(BufferPool.getPageSize()));
+        int fixedSlots = new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots();
+        int count = 0;
+        while (page.canInsert(tuple(count, name(count, 12)))) {
+            page.insertTuple(tuple(count, name(count, 12)));
+            count++;
+        }
+        assertTrue(count > 5 * fixedSlots);
+        assertEquals(count, contents(page).size());
+        try {
+            page.insertTuple(tuple(0, name(0, 12)));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A tuple longer than any hole left by deletes goes in after the page is
+     * compacted, and the other tuples keep their slots and values.
+     */
+    @Test public void compactsOnInsert() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData(BufferPool.getPageSize()));
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; page.canInsert(tuple(i, name(i, 10))); i++) {
+            Tuple t = tuple(i, name(i, 10));
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        for (int i = 0; i < 20; i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        Map<Integer, String> before = contents(page);
+
+        Tuple big = tuple(-1, name(0, 100));
+        assertTrue(page.canInsert(big));
+        page.insertTuple(big);
+        Map<Integer, String> after = contents(page);
+        assertEquals("-1:" + name(0, 100), after.remove(big.getRecordId().getTupleNumber()));
+        assertEquals(before, after);
+
+        // the bytes of the page give back the same page
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(contents(page), contents(copy));
+    }
+
+    /**
+     * An update that makes a record longer than any hole moves it within the
+     * page, after compacting it; the tuple keeps its slot, and so do the
+     * others. An update that does not fit at all leaves the page unchanged.
+     */
+    @Test public void growingUpdateMovesRecord() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData(BufferPool.getPageSize()));
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; page.canInsert(tuple(i, name(i, 10))); i++) {
+            Tuple t = tuple(i, name(i, 10));
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        for (int i = 0; i < 20; i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        Map<Integer, String> expected = contents(page);
+
+        Tuple grown = tuple(-1, name(1, 100));
+        grown.setRecordId(inserted.get(1).getRecordId());
+        page.updateTuple(grown);
+        expected.put(grown.getRecordId().getTupleNumber(), "-1:" + name(1, 100));
+        assertEquals(expected, contents(page));
+        assertEquals(expected, contents(new SlottedHeapPage(pid, page.getPageData())));
+
+        Tuple shrunk = tuple(-3, "");
+        shrunk.setRecordId(inserted.get(3).getRecordId());
+        page.updateTuple(shrunk);
+        expected.put(shrunk.getRecordId().getTupleNumber(), "-3:");
+        assertEquals(expected, contents(page));
+
+        Tuple huge = tuple(-5, name(5, Type.STRING_LEN));
+        huge.setRecordId(inserted.get(5).getRecordId());
+        while (page.canInsert(tuple(0, name(0, 10)))) {
+            page.insertTuple(tuple(0, name(0, 10)));
+        }
+        expected = contents(page);
+        try {
+            page.updateTuple(huge);
+            fail("record should not fit");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(expected, contents(page));
+    }
+
+    /**
+     * A HeapFile with slotted pages stores and scans tuples through the buffer pool.
+     */
+    @Test public void heapFileScan() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td, HeapPageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, "slotted_file");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, name(i, i % 20)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() <= 6);
+
+        TransactionId tid2 = new TransactionId();
+        DbFileIterator it = hf.iterator(tid2);
+        it.open();
+        int count = 0;
+        long sum = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(name(id, id % 20), ((StringField) t.getField(1)).getValue());
+            sum += id;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid2);
+        assertEquals(1000, count);
+        assertEquals(999 * 1000 / 2, sum);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class SnapshotReadTest {
+
+    private HeapFile f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        Database.reset();
+        f = SystemTestUtil.createRandomHeapFile(2, 20, null, new ArrayList<>());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * A snapshot scan takes no locks, so it neither waits for an uncommitted
+     * writer nor sees its changes, and keeps seeing the same data after the
+     * writer commits.
+     */
+    @Test public void readerDoesNotBlockWriter() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, f.getId(), Utility.getHeapTuple(7, 2));
+        assertTrue(bp.holdsLock(writer, new HeapPageId(f.getId(), 0)));
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        assertEquals(20, count(reader.getId()));
+        assertFalse(bp.holdsLock(reader.getId(), new HeapPageId(f.getId(), 0)));
+
+        bp.transactionComplete(writer, true);
+        assertEquals(20, count(reader.getId()));
+        reader.commit();
+
+        Transaction next = new Transaction(true);
+        next.start();
+        assertEquals(21, count(next.getId()));
+        next.commit();
+    }
+
+    /**
+     * A snapshot transaction sees its own writes.
+     */
+    @Test public void readOwnWrites() throws Exception {
+        Transaction t = new Transaction(true);
+        t.start();
+        bp.insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(7, 2));
+        assertEquals(21, count(t.getId()));
+        t.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
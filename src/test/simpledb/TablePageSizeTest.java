@@ -0,0 +1,84 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class TablePageSizeTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    private static long sum(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        long sum = 0;
+        while (it.hasNext()) {
+            sum += ((IntField) it.next().getField(0)).getValue();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sum;
+    }
+
+    /**
+     * A table with its own page size lays its file out in pages of that size,
+     * next to a table with the database page size, and reads back the same
+     * after it is opened again.
+     */
+    @Test public void largePages() throws Exception {
+        int pageSize = 4 * BufferPool.getPageSize();
+        File f = tempFile();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.FIXED, null, pageSize);
+        HeapFile small = new HeapFile(tempFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "large");
+        Database.getCatalog().addTable(small, "small");
+        assertEquals(pageSize, Database.getCatalog().getPageSize(hf.getId()));
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(small.getId()));
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{i, i}));
+            Database.getBufferPool().insertTuple(tid, small.getId(), Utility.getHeapTuple(new int[]{i, i}));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        int perPage = (pageSize * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        assertEquals((3000 + perPage - 1) / perPage, hf.numPages());
+        assertTrue(hf.numPages() * 3 <= small.numPages());
+        assertEquals(0, f.length() % pageSize);
+
+        // 缓冲池比一页大页还小时也要能读
+        Database.resetBufferPool(2);
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.FIXED, null, pageSize);
+        Database.getCatalog().addTable(reopened, "large");
+        assertEquals(hf.numPages(), reopened.numPages());
+        assertEquals(2999L * 3000 / 2, sum(reopened));
+    }
+
+    /**
+     * Tables can only choose a power of two from 4 KB to 64 KB.
+     */
+    @Test(expected = IllegalArgumentException.class) public void badPageSize() throws Exception {
+        new HeapFile(tempFile(), Utility.getTupleDesc(2), HeapPageFormat.FIXED, null, 3 * 4096);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TablePageSizeTest.class);
+    }
+}
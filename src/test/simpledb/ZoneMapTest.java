@@ -0,0 +1,348 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+import simpledb.util.HeapFileIterator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10000;
+
+    private File file;
+    private HeapFile hf;
+
+    /**
+     * A table of (id, id % 7) with the ids in order, so each page holds a
+     * narrow range of ids.
+     */
+    @Before public void setUp() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(Arrays.asList(i, i % 7));
+        }
+        this.file = File.createTempFile("zonemap", ".dat");
+        this.file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, this.file, BufferPool.getPageSize(), 2);
+        this.hf = Utility.openHeapFile(2, this.file);
+    }
+
+    // 扫描第0列满足条件的行，返回扫描交出来的行数（包括不满足条件的），满足条件的放进matched
+    private int scan(Predicate p, List<Integer> matched) throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapFileIterator it = (HeapFileIterator) this.hf.iterator(tid);
+        it.addPagePredicate(p);
+        it.open();
+        int returned = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            returned++;
+            if (p.filter(t)) {
+                matched.add(((IntField) t.getField(0)).getValue());
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return returned;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    /**
+     * Once the pages have been read, a range scan on the clustered column
+     * reads only the pages whose range overlaps the predicate.
+     */
+    @Test public void skipsPagesOutOfRange() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS - 100));
+        List<Integer> matched = new ArrayList<>();
+        // 第一次扫描还不知道每页的范围，读到哪页才知道哪页的范围
+        scan(p, matched);
+        assertEquals(range(ROWS - 99, ROWS), matched);
+
+        matched.clear();
+        int perPage = ROWS / this.hf.numPages();
+        assertTrue(scan(p, matched) <= 2 * perPage + 100);
+        assertEquals(range(ROWS - 99, ROWS), matched);
+
+        matched.clear();
+        assertTrue(scan(new Predicate(0, Predicate.Op.EQUALS, new IntField(5000)), matched) < 2 * perPage);
+        assertEquals(Collections.singletonList(5000), matched);
+        // 另一列没有聚集，跳不了页
+        assertEquals(ROWS, scan(new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(0)), new ArrayList<>()));
+    }
+
+    /**
+     * Inserts widen the range of a page; a delete that aborts leaves the
+     * range as it was, and one that commits narrows it.
+     */
+    @Test public void followsInsertAndDelete() throws Exception {
+        Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS));
+        scan(big, new ArrayList<>());
+        BufferPool pool = Database.getBufferPool();
+
+        // 删掉第一页的一行，腾出空位给一个很大的id
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = this.hf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        pool.deleteTuple(tid, first);
+        pool.insertTuple(tid, this.hf.getId(), Utility.getHeapTuple(new int[]{ROWS + 5, 0}));
+        pool.transactionComplete(tid, true);
+        List<Integer> matched = new ArrayList<>();
+        scan(big, matched);
+        assertEquals(Collections.singletonList(ROWS + 5), matched);
+
+        // 删掉又回滚，这一行还能找到
+        tid = new TransactionId();
+        it = this.hf.iterator(tid);
+        it.open();
+        Tuple found = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == ROWS + 5) {
+                found = t;
+            }
+        }
+        it.close();
+        pool.deleteTuple(tid, found);
+        pool.transactionComplete(tid, false);
+        matched.clear();
+        scan(big, matched);
+        assertEquals(Collections.singletonList(ROWS + 5), matched);
+
+        // 提交以后这一页也被跳过
+        tid = new TransactionId();
+        pool.deleteTuple(tid, found);
+        pool.transactionComplete(tid, true);
+        matched.clear();
+        assertEquals(0, scan(big, matched));
+    }
+
+    /**
+     * The ranges written with the pages survive reopening the table, and a
+     * Filter over a SeqScan uses them once the predicate is pushed down.
+     */
+    @Test public void persistedAndPushedDown() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50));
+        scan(p, new ArrayList<>());
+        // 把所有页写一遍，区域映射随页一起写到磁盘
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < this.hf.numPages(); i++) {
+            Page page = Database.getBufferPool().getPage(tid, new HeapPageId(this.hf.getId(), i), Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        this.hf = new HeapFile(this.file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(this.hf, "zonemap");
+        List<Integer> matched = new ArrayList<>();
+        assertTrue(scan(p, matched) < ROWS / 2);
+        assertEquals(range(0, 50), matched);
+
+        tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, this.hf.getId());
+        ss.pushDownPredicate(p);
+        Filter filter = new Filter(p, ss);
+        filter.open();
+        int count = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            count++;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(50, count);
+    }
+
+    /**
+     * A data file rewritten by other means, to the same length and even with
+     * an older modification time, is not skipped on the ranges of its old
+     * content.
+     */
+    @Test public void staleMapAfterRewrite() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50));
+        scan(p, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < this.hf.numPages(); i++) {
+            Page page = Database.getBufferPool().getPage(tid, new HeapPageId(this.hf.getId(), i), Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        File map = new File(this.file.getPath() + ".zmap");
+        assertTrue(map.exists());
+
+        // 同样多的行倒过来放，文件一样长，修改时间比区域映射还早
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = ROWS - 1; i >= 0; i--) {
+            tuples.add(Arrays.asList(i, i % 7));
+        }
+        long length = this.file.length();
+        HeapFileEncoder.convert(tuples, this.file, BufferPool.getPageSize(), 2);
+        assertEquals(length, this.file.length());
+        assertTrue(this.file.setLastModified(map.lastModified() - 10000));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        this.hf = new HeapFile(this.file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(this.hf, "zonemap");
+        List<Integer> matched = new ArrayList<>();
+        scan(p, matched);
+        Collections.sort(matched);
+        assertEquals(range(0, 50), matched);
+    }
+
+    /**
+     * Strings are summarized by a prefix: strings that share it are never
+     * told apart, so no page holding one of them is skipped, while pages of
+     * another prefix still are.
+     */
+    @Test public void stringsSharingPrefix() throws Exception {
+        File text = File.createTempFile("zonemap", ".txt");
+        text.deleteOnExit();
+        File strings = File.createTempFile("zonemap", ".dat");
+        strings.deleteOnExit();
+        List<String> values = new ArrayList<>();
+        try (PrintWriter w = new PrintWriter(text, "UTF-8")) {
+            for (int i = 0; i < 2000; i++) {
+                String v = (i < 1000 ? "abcd" : "zzzz") + String.format("%04d", i);
+                values.add(v);
+                w.println(i + "," + v);
+            }
+        }
+        Type[] types = new Type[]{Type.INT_TYPE, Type.STRING_TYPE};
+        HeapFileEncoder.convert(text, strings, BufferPool.getPageSize(), 2, types);
+        HeapFile table = new HeapFile(strings, new TupleDesc(types));
+        Database.getCatalog().addTable(table, "zonemapstrings");
+
+        List<Predicate> predicates = Arrays.asList(
+                new Predicate(1, Predicate.Op.EQUALS, new StringField("abcd0500", Type.STRING_LEN)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new StringField("abcd0998", Type.STRING_LEN)),
+                new Predicate(1, Predicate.Op.LESS_THAN, new StringField("abcd0002", Type.STRING_LEN)),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new StringField("abcd", Type.STRING_LEN)),
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new StringField("zzzz1999", Type.STRING_LEN)));
+        // 第一遍读所有页，知道每页的范围
+        scanStrings(table, predicates.get(0), new ArrayList<>());
+        for (Predicate p : predicates) {
+            List<String> expected = new ArrayList<>();
+            for (String v : values) {
+                Tuple t = new Tuple(table.getTupleDesc());
+                t.setField(0, new IntField(0));
+                t.setField(1, new StringField(v, Type.STRING_LEN));
+                if (p.filter(t)) {
+                    expected.add(v);
+                }
+            }
+            List<String> matched = new ArrayList<>();
+            int returned = scanStrings(table, p, matched);
+            assertEquals(p.toString(), expected, matched);
+            if (p.getOp() == Predicate.Op.GREATER_THAN_OR_EQ) {
+                // 前缀"abcd"的页都跳过了，最多还读一页两种前缀都有的
+                assertTrue(returned <= 1000 + 2000 / table.numPages() + 1);
+            }
+        }
+    }
+
+    // 扫描第1列（字符串），返回扫描交出来的行数，满足条件的放进matched
+    private int scanStrings(HeapFile table, Predicate p, List<String> matched) throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapFileIterator it = (HeapFileIterator) table.iterator(tid);
+        it.addPagePredicate(p);
+        it.open();
+        int returned = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            returned++;
+            if (p.filter(t)) {
+                matched.add(((StringField) t.getField(1)).getValue());
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return returned;
+    }
+
+    /**
+     * A range query typed into the parser, run with the default locking
+     * reads, reads only the pages whose range overlaps its WHERE clause.
+     */
+    @Test public void parsedRangeQuerySkipsPages() throws Exception {
+        class InstrumentedHeapFile extends HeapFile {
+            public InstrumentedHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) {
+                readCount.incrementAndGet();
+                return super.readPage(pid);
+            }
+
+            public final AtomicInteger readCount = new AtomicInteger();
+        }
+        InstrumentedHeapFile table = new InstrumentedHeapFile(this.file, new TupleDesc(Utility.getTypes(2), new String[]{"id", "m"}));
+        Database.getCatalog().addTable(table, "zonemap");
+        // 统计信息扫描一遍全表，顺便知道了每页的范围
+        TableStats.setTableStats("zonemap", new TableStats(table.getId(), 1));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount.set(0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(out, true, "UTF-8"));
+        try {
+            new Parser().processNextStatement("SELECT * FROM zonemap WHERE zonemap.id > " + (ROWS - 100) + ";");
+        } finally {
+            System.setOut(stdout);
+        }
+        assertTrue(out.toString("UTF-8").contains(" 99 rows."));
+        assertTrue(table.readCount.get() <= 2);
+    }
+
+    /**
+     * Strings are compared on a prefix: a page is only skipped when the
+     * prefix of the operand is outside its range.
+     */
+    @Test public void stringPrefix() {
+        assertTrue(ZoneMap.key(new StringField("abcd", Type.STRING_LEN)) < ZoneMap.key(new StringField("abce", Type.STRING_LEN)));
+        assertTrue(ZoneMap.key(new StringField("ab", Type.STRING_LEN)) < ZoneMap.key(new StringField("abc", Type.STRING_LEN)));
+        assertEquals(ZoneMap.key(new StringField("abcdx", Type.STRING_LEN)), ZoneMap.key(new StringField("abcdy", Type.STRING_LEN)));
+        assertTrue(ZoneMap.key(new StringField("\uffff", Type.STRING_LEN)) > ZoneMap.key(new StringField("a", Type.STRING_LEN)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}